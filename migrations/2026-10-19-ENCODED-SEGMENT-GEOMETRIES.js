@@ -0,0 +1,51 @@
+// Store the segment geometries of added trip patterns and reroutes as encoded polylines (six digits of precision)
+// rather than GeoJSON, matching Segment.getEncodedGeometry. Run while the server is stopped, so that no cached
+// modification is written back in the old form. Migrated modifications get a new nonce, so that no server can keep
+// serving or overwriting the version it had cached.
+
+function encodeValue (value) {
+	value = value < 0 ? -2 * value - 1 : 2 * value;
+	var encoded = '';
+	while (value >= 0x20) {
+		encoded += String.fromCharCode((0x20 | (value % 0x20)) + 63);
+		value = Math.floor(value / 0x20);
+	}
+	return encoded + String.fromCharCode(value + 63);
+}
+
+function encodePolyline (coordinates) {
+	var encoded = '';
+	var previousLat = 0;
+	var previousLon = 0;
+	coordinates.forEach(function (c) {
+		var lat = Math.round(c[1] * 1e6);
+		var lon = Math.round(c[0] * 1e6);
+		encoded += encodeValue(lat - previousLat) + encodeValue(lon - previousLon);
+		previousLat = lat;
+		previousLon = lon;
+	});
+	return encoded;
+}
+
+var migrated = 0;
+db.modifications.find({"segments.geometry": {$exists: true}}).forEach(function (m) {
+	var set = {};
+	var unset = {};
+	m.segments.forEach(function (segment, i) {
+		var geometry = segment.geometry;
+		if (!geometry) return;
+		if (geometry.type !== 'LineString' && geometry.type !== 'Point') {
+			print('Skipping segment ' + i + ' of modification ' + m._id + ' with geometry type ' + geometry.type);
+			return;
+		}
+		var coordinates = geometry.type === 'Point' ? [geometry.coordinates] : geometry.coordinates;
+		set['segments.' + i + '.encodedGeometry'] = encodePolyline(coordinates);
+		unset['segments.' + i + '.geometry'] = '';
+	});
+	if (Object.keys(set).length > 0) {
+		set.nonce = new ObjectId().str;
+		db.modifications.update({_id: m._id}, {$set: set, $unset: unset});
+		migrated++;
+	}
+});
+print('Migrated segment geometries of ' + migrated + ' modifications');
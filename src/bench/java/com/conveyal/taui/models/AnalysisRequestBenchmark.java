@@ -0,0 +1,134 @@
+package com.conveyal.taui.models;
+
+import com.conveyal.r5.analyst.cluster.RegionalTask;
+import com.conveyal.r5.analyst.cluster.TravelTimeSurfaceTask;
+import com.conveyal.r5.common.JsonUtilities;
+import com.conveyal.taui.analysis.ScenarioCache;
+import com.conveyal.taui.persistence.LocalMap;
+import com.conveyal.taui.persistence.Persistence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning an analysis request into a task and serializing tasks. populateTask is run both on the baseline (no variant)
+ * and on a variant of large modifications, stored in a LocalMap in place of the database. For the variant, the warm
+ * benchmark finds the scenario in the ScenarioCache as a repeated request would, while the cold one uses an empty
+ * ScenarioCache as the first request after a modification is saved. The regional task round trip includes a large
+ * scenario, as sent to the broker.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnalysisRequestBenchmark {
+    private AnalysisRequest request;
+    private AnalysisRequest variantRequest;
+    private Project project;
+    private byte[] regionalTaskJson;
+
+    @Setup
+    public void setup () throws IOException {
+        File directory = Files.createTempDirectory("analysis-request-benchmark").toFile();
+        Persistence.modifications = new LocalMap<>(new File(directory, "modifications.json"), Modification.class);
+
+        project = new Project();
+        project._id = "project";
+        project.accessGroup = "benchmark";
+        project.bundleId = "bundle";
+
+        request = request(project._id, -1);
+        variantRequest = request(project._id, 0);
+
+        RegionalTask regionalTask = (RegionalTask) request.populateTask(new RegionalTask(), project);
+        List<com.conveyal.r5.analyst.scenario.Modification> modifications = new ArrayList<>();
+        modifications.add(SyntheticModifications.addTripPattern(200, 20).toR5());
+        modifications.add(SyntheticModifications.reroute(200).toR5());
+        modifications.add(SyntheticModifications.convertToFrequency(20).toR5());
+        modifications.add(SyntheticModifications.adjustSpeed(200).toR5());
+        regionalTask.scenario.modifications = modifications;
+        regionalTaskJson = JsonUtilities.objectMapper.writeValueAsBytes(regionalTask);
+
+        // Store the same modifications in the first variant of the project, compiled as they are when saved.
+        List<Modification> variant = new ArrayList<>();
+        variant.add(SyntheticModifications.addTripPattern(200, 20));
+        variant.add(SyntheticModifications.reroute(200));
+        variant.add(SyntheticModifications.convertToFrequency(20));
+        variant.add(SyntheticModifications.adjustSpeed(200));
+        for (Modification m : variant) {
+            m.projectId = project._id;
+            m.accessGroup = project.accessGroup;
+            m.variants = new boolean[] { true };
+            m.compile();
+        }
+        Persistence.modifications.createAll(variant);
+    }
+
+    /** A request over a large area, as made for a regional analysis */
+    private static AnalysisRequest request (String projectId, int variantIndex) {
+        AnalysisRequest request = new AnalysisRequest();
+        request.projectId = projectId;
+        request.variantIndex = variantIndex;
+        request.workerVersion = "v3.4.1";
+        request.accessModes = request.directModes = request.egressModes = "WALK";
+        request.transitModes = "BUS,RAIL";
+        request.date = LocalDate.of(2017, 9, 6);
+        request.fromLat = 38.9f;
+        request.fromLon = -77.0f;
+        request.fromTime = 7 * 3600;
+        request.toTime = 9 * 3600;
+        request.walkSpeed = 1.3f;
+        request.bikeSpeed = 4.1f;
+        request.percentiles = new double[] { 5, 25, 50, 75, 95 };
+        request.maxTripDurationMinutes = 60;
+        request.bounds = new Bounds();
+        request.bounds.north = 39.1;
+        request.bounds.south = 38.7;
+        request.bounds.east = -76.8;
+        request.bounds.west = -77.3;
+        return request;
+    }
+
+    @Benchmark
+    public Object populateTravelTimeSurfaceTask () {
+        return request.populateTask(new TravelTimeSurfaceTask(), project);
+    }
+
+    @Benchmark
+    public Object populateRegionalTask () {
+        return request.populateTask(new RegionalTask(), project);
+    }
+
+    @Benchmark
+    public Object populateTravelTimeSurfaceTaskWithVariant () {
+        return variantRequest.populateTask(new TravelTimeSurfaceTask(), project);
+    }
+
+    @Benchmark
+    public Object compileVariantWithEmptyCache () {
+        return new ScenarioCache().get(project.accessGroup, project._id, variantRequest.variantIndex);
+    }
+
+    @Benchmark
+    public Object regionalTaskRoundTrip () throws IOException {
+        RegionalTask task = JsonUtilities.objectMapper.readValue(regionalTaskJson, RegionalTask.class);
+        return JsonUtilities.objectMapper.writeValueAsBytes(task);
+    }
+}
@@ -0,0 +1,86 @@
+package com.conveyal.taui.models;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converting modifications to their R5 form, which happens whenever a modification is saved (and on every analysis
+ * request for modifications saved before they were compiled on save).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModificationBenchmark {
+    /** Number of segments drawn for added and rerouted patterns, each about 2 km long */
+    @Param({ "10", "200" })
+    public int nSegments;
+
+    private AddTripPattern addTripPattern;
+    private Reroute reroute;
+    private ConvertToFrequency convertToFrequency;
+    private AdjustSpeed adjustSpeed;
+
+    private List<ModificationStop> stops;
+    private AddTripPattern.Timetable timetable;
+
+    @Setup
+    public void setup () {
+        addTripPattern = SyntheticModifications.addTripPattern(nSegments, 20);
+        reroute = SyntheticModifications.reroute(nSegments);
+        convertToFrequency = SyntheticModifications.convertToFrequency(20);
+        adjustSpeed = SyntheticModifications.adjustSpeed(nSegments);
+
+        stops = ModificationStop.getStopsFromSegments(addTripPattern.segments);
+        timetable = addTripPattern.timetables.get(0);
+    }
+
+    @Benchmark
+    public Object addTripPatternToR5 () {
+        return addTripPattern.toR5();
+    }
+
+    @Benchmark
+    public Object rerouteToR5 () {
+        return reroute.toR5();
+    }
+
+    @Benchmark
+    public Object convertToFrequencyToR5 () {
+        return convertToFrequency.toR5();
+    }
+
+    @Benchmark
+    public Object adjustSpeedToR5 () {
+        return adjustSpeed.toR5();
+    }
+
+    @Benchmark
+    public Object getStopsFromSegments () {
+        return ModificationStop.getStopsFromSegments(addTripPattern.segments);
+    }
+
+    @Benchmark
+    public int[] getHopTimes () {
+        return ModificationStop.getHopTimes(stops, timetable.segmentSpeeds);
+    }
+
+    @Benchmark
+    public int[] getDwellTimes () {
+        return ModificationStop.getDwellTimes(stops, timetable.dwellTimes, timetable.dwellTime);
+    }
+}
@@ -0,0 +1,117 @@
+package com.conveyal.taui.models;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Large synthetic modifications for the benchmarks, as drawn in the UI: long routes made of many segments, each with a
+ * detailed geometry, and many timetables.
+ */
+class SyntheticModifications {
+    private static final GeometryFactory geometryFactory = new GeometryFactory();
+
+    /** Roughly 100 meters between consecutive coordinates at this latitude */
+    private static final double COORDINATE_STEP = 0.001;
+
+    static List<Segment> segments (int nSegments, int coordinatesPerSegment, int spacing) {
+        List<Segment> segments = new ArrayList<>();
+        double lon = -77.0;
+        double lat = 38.9;
+        for (int s = 0; s < nSegments; s++) {
+            Coordinate[] coordinates = new Coordinate[coordinatesPerSegment];
+            for (int c = 0; c < coordinatesPerSegment; c++) {
+                // Zig-zag so that the route is not a straight line
+                coordinates[c] = new Coordinate(lon, lat);
+                lon += COORDINATE_STEP;
+                lat += c % 2 == 0 ? COORDINATE_STEP : -COORDINATE_STEP / 2;
+            }
+            lon -= COORDINATE_STEP;
+            lat = coordinates[coordinatesPerSegment - 1].y;
+
+            Segment segment = new Segment();
+            segment.geometry = geometryFactory.createLineString(coordinates);
+            segment.spacing = spacing;
+            segment.stopAtStart = s == 0;
+            segment.stopAtEnd = true;
+            segment.fromStopId = s == 0 ? "feed:first" : null;
+            segment.toStopId = s == nSegments - 1 ? "feed:last" : null;
+            segments.add(segment);
+        }
+        return segments;
+    }
+
+    static AddTripPattern addTripPattern (int nSegments, int nTimetables) {
+        AddTripPattern atp = new AddTripPattern();
+        atp._id = "atp";
+        atp.name = "Synthetic trip pattern";
+        atp.bidirectional = true;
+        atp.segments = segments(nSegments, 20, 400);
+        atp.timetables = new ArrayList<>();
+        for (int t = 0; t < nTimetables; t++) {
+            AddTripPattern.Timetable timetable = new AddTripPattern.Timetable();
+            timetable._id = "timetable" + t;
+            timetable.monday = timetable.tuesday = timetable.wednesday = timetable.thursday = timetable.friday = true;
+            timetable.startTime = 6 * 3600;
+            timetable.endTime = 22 * 3600;
+            timetable.headwaySecs = 600;
+            timetable.exactTimes = t % 2 == 0;
+            timetable.dwellTime = 30;
+            timetable.segmentSpeeds = new int[nSegments];
+            for (int s = 0; s < nSegments; s++) timetable.segmentSpeeds[s] = 15 + s % 20;
+            timetable.dwellTimes = new Integer[nSegments + 1];
+            atp.timetables.add(timetable);
+        }
+        return atp;
+    }
+
+    static Reroute reroute (int nSegments) {
+        Reroute reroute = new Reroute();
+        reroute._id = "reroute";
+        reroute.name = "Synthetic reroute";
+        reroute.feed = "feed";
+        reroute.routes = new String[] { "route" };
+        reroute.fromStop = "first";
+        reroute.toStop = "last";
+        reroute.segments = segments(nSegments, 20, 400);
+        reroute.dwellTime = 30;
+        reroute.segmentSpeeds = new int[nSegments];
+        for (int s = 0; s < nSegments; s++) reroute.segmentSpeeds[s] = 15 + s % 20;
+        return reroute;
+    }
+
+    static ConvertToFrequency convertToFrequency (int nEntries) {
+        ConvertToFrequency ctf = new ConvertToFrequency();
+        ctf._id = "ctf";
+        ctf.name = "Synthetic frequency conversion";
+        ctf.feed = "feed";
+        ctf.routes = new String[] { "route" };
+        ctf.entries = new ArrayList<>();
+        for (int e = 0; e < nEntries; e++) {
+            ConvertToFrequency.FrequencyEntry entry = new ConvertToFrequency.FrequencyEntry();
+            entry._id = "entry" + e;
+            entry.saturday = entry.sunday = true;
+            entry.startTime = 6 * 3600;
+            entry.endTime = 22 * 3600;
+            entry.headwaySecs = 300;
+            entry.exactTimes = e % 2 == 0;
+            entry.sourceTrip = "trip" + e;
+            ctf.entries.add(entry);
+        }
+        return ctf;
+    }
+
+    static AdjustSpeed adjustSpeed (int nHops) {
+        AdjustSpeed adjustSpeed = new AdjustSpeed();
+        adjustSpeed._id = "adjust-speed";
+        adjustSpeed.name = "Synthetic speed adjustment";
+        adjustSpeed.feed = "feed";
+        adjustSpeed.routes = new String[] { "route" };
+        adjustSpeed.scale = 1.5;
+        adjustSpeed.hops = new String[nHops][];
+        for (int h = 0; h < nHops; h++) adjustSpeed.hops[h] = new String[] { "stop" + h, "stop" + (h + 1) };
+        return adjustSpeed;
+    }
+}
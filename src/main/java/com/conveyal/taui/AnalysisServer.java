@@ -6,6 +6,7 @@ import com.conveyal.gtfs.api.util.FeedSourceCache;
 import com.conveyal.taui.analysis.LocalCluster;
 import com.conveyal.taui.controllers.AggregationAreaController;
 import com.conveyal.taui.controllers.BundleController;
+import com.conveyal.taui.controllers.DatabaseController;
 import com.conveyal.taui.controllers.GraphQLController;
 import com.conveyal.taui.controllers.ModificationController;
 import com.conveyal.taui.controllers.OpportunityDatasetsController;
@@ -47,6 +48,11 @@ public class AnalysisServer {
     public static void main (String... args) {
         LOG.info("Starting Conveyal Analysis server, the time is now {}", DateTime.now());
 
+        if (AnalysisServerConfig.clustered && AnalysisServerConfig.nodeId == null) {
+            LOG.error("NODE_ID must be set when running CLUSTERED.");
+            System.exit(1);
+        }
+
         LOG.info("Connecting to database...");
         Persistence.initialize();
 
@@ -104,6 +110,7 @@ public class AnalysisServer {
         OpportunityDatasetsController.register();
         RegionalAnalysisController.register();
         AggregationAreaController.register();
+        DatabaseController.register();
 
         // Load index.html and register a handler with Spark to serve it up.
         InputStream indexStream = AnalysisServer.class.getClassLoader().getResourceAsStream("public/index.html");
@@ -29,6 +29,8 @@ public class AnalysisServerConfig {
     public static final String bundleBucket = getEnv("BUNDLE_BUCKET", null);
     public static final String databaseName = getEnv("DATABASE_NAME", "scenario-editor");
     public static final String databaseUri = getEnv("MONGOLAB_URI", null);
+    /** Store data in files in the local cache rather than in MongoDB, e.g. when running offline */
+    public static final boolean localDatabase = Boolean.parseBoolean(getEnv("LOCAL_DATABASE", "false"));
     public static final String auth0ClientId = getEnv("AUTH0_CLIENT_ID", null);
     public static final byte[] auth0Secret = new Base64(true).decode(getEnv("AUTH0_SECRET", null));
     public static final String localCache = getEnv("LOCAL_CACHE", "cache");
@@ -42,6 +44,18 @@ public class AnalysisServerConfig {
     public static final String resultsBucket = getEnv("RESULTS_BUCKET", null);
     public static final String resultsQueue = getEnv("RESULTS_QUEUE", null);
     public static final String region = getEnv("REGION", "eu-west-1");
+    public static final int resultAssemblyThreads = Integer.parseInt(getEnv("RESULT_ASSEMBLY_THREADS", "" + Runtime.getRuntime().availableProcessors()));
+    public static final boolean clustered = Boolean.parseBoolean(getEnv("CLUSTERED", "false"));
+    /**
+     * Identifies this backend instance when CLUSTERED, and names its results queue. Required when clustered, and must
+     * stay the same across restarts so that the instance picks up its own queue and leases again.
+     */
+    public static final String nodeId = getEnv("NODE_ID", null);
+    public static final int maxSinglePointRequests = Integer.parseInt(getEnv("MAX_SINGLE_POINT_REQUESTS", "32"));
+    public static final long singlePointCacheBytes = Long.parseLong(getEnv("SINGLE_POINT_CACHE_MB", "256")) * 1024 * 1024;
+    public static final int maxResultBacklog = Integer.parseInt(getEnv("MAX_RESULT_BACKLOG", "5000"));
+    /** Access group whose users may see diagnostics covering all groups; if not set, nobody can */
+    public static final String adminGroup = getEnv("ADMIN_GROUP", null);
 
     public static String getEnv (String key, String defaultValue) {
         String val = System.getenv(key);
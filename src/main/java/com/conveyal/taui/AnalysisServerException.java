@@ -26,6 +26,7 @@ public class AnalysisServerException extends RuntimeException {
         JSON_PARSING,
         NONCE,
         NOT_FOUND,
+        SERVICE_UNAVAILABLE,
         UNAUTHORIZED,
         UNKNOWN;
     }
@@ -69,6 +70,10 @@ public class AnalysisServerException extends RuntimeException {
         return new AnalysisServerException(TYPE.NOT_FOUND, message, 404);
     }
 
+    public static AnalysisServerException ServiceUnavailable(String message) {
+        return new AnalysisServerException(TYPE.SERVICE_UNAVAILABLE, message, 503);
+    }
+
     public static AnalysisServerException Unauthorized(String message) {
         return new AnalysisServerException(TYPE.UNAUTHORIZED, message, 401);
     }
@@ -5,20 +5,25 @@ import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.sqs.AmazonSQS;
 import com.amazonaws.services.sqs.AmazonSQSClient;
-import com.conveyal.r5.analyst.broker.JobStatus;
+import com.amazonaws.services.sqs.model.CreateQueueRequest;
 import com.conveyal.r5.analyst.cluster.AnalysisTask;
 import com.conveyal.r5.analyst.cluster.GridResultAssembler;
-import com.conveyal.r5.analyst.cluster.GridResultQueueConsumer;
 import com.conveyal.r5.analyst.cluster.RegionalTask;
 import com.conveyal.r5.analyst.scenario.Scenario;
 import com.conveyal.taui.AnalysisServerConfig;
 import com.conveyal.taui.AnalysisServerException;
 import com.conveyal.taui.models.RegionalAnalysis;
+import com.conveyal.taui.persistence.JobLeases;
+import com.conveyal.taui.persistence.Persistence;
+import com.conveyal.taui.persistence.StatusRegistry;
 import com.conveyal.taui.persistence.TiledAccessGrid;
 import com.conveyal.taui.util.HttpUtil;
 import com.conveyal.taui.util.JsonUtil;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.util.EntityUtils;
@@ -29,10 +34,17 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Manages coordination of multipoint runs with the broker.
@@ -43,21 +55,88 @@ public class RegionalAnalysisManager {
 
     private static ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 20, 90, TimeUnit.SECONDS, new ArrayBlockingQueue<>(512));
 
-    public static Map<String, JobStatus> statusByJob;
+    private static final long LEASE_MILLIS = 60 * 1000;
 
-    public static final GridResultQueueConsumer consumer;
+    /**
+     * Statuses of the jobs being assembled, published by the instance assembling each job so that other backend
+     * instances can report them. Only used when several instances are running.
+     */
+    public static final StatusRegistry<RegionalAnalysisStatus> statusByJob =
+            Persistence.getStatusRegistry("regional-analyses", RegionalAnalysisStatus.class);
+
+    /** Leases recording which backend instance assembles each job, or null when running a single instance */
+    private static final JobLeases leases = AnalysisServerConfig.clustered ? Persistence.getJobLeases(LEASE_MILLIS) : null;
+
+    /** Attributes of the base results queue that are given to the results queue of each clustered instance */
+    private static final List<String> COPIED_QUEUE_ATTRIBUTES = Arrays.asList("DelaySeconds", "MaximumMessageSize",
+            "MessageRetentionPeriod", "ReceiveMessageWaitTimeSeconds", "RedrivePolicy", "VisibilityTimeout");
+
+    private static final ScheduledExecutorService leaseRenewer = Executors.newSingleThreadScheduledExecutor();
+
+    public static final RegionalResultConsumer consumer;
     public static final String resultsQueueUrl;
     private static final int REQUEST_CHUNK_SIZE = 1000;
 
     public static final String brokerUrl = AnalysisServerConfig.brokerUrl;
 
+    private static final long WORKER_COUNT_REFRESH_MILLIS = 15 * 1000;
+    private static final int WORKER_COUNT_TIMEOUT_MILLIS = 5 * 1000;
+    private static volatile Map<String, Integer> workerCountByGraph = new HashMap<>();
+    private static volatile long workerCountsFetchedAt = 0;
+    private static final AtomicBoolean fetchingWorkerCounts = new AtomicBoolean(false);
+    private static final ExecutorService workerCountFetcher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "worker-count-fetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     static {
         AmazonSQS sqs = new AmazonSQSClient();
         sqs.setRegion(com.amazonaws.regions.Region.getRegion(Regions.fromName(AnalysisServerConfig.region)));
-        resultsQueueUrl = sqs.getQueueUrl(AnalysisServerConfig.resultsQueue).getQueueUrl();
-        consumer = new GridResultQueueConsumer(resultsQueueUrl, AnalysisServerConfig.resultsBucket);
+        if (AnalysisServerConfig.clustered) {
+            // Each instance reads results from its own queue, which it names as the output queue of the jobs it
+            // enqueues, so that the workers send results straight to the instance assembling them. NODE_ID is stable
+            // across restarts so that the same queue is reused. It is configured like the base results queue, e.g.
+            // with the same visibility timeout and dead-letter queue.
+            String baseQueueUrl = sqs.getQueueUrl(AnalysisServerConfig.resultsQueue).getQueueUrl();
+            Map<String, String> attributes = sqs.getQueueAttributes(baseQueueUrl, COPIED_QUEUE_ATTRIBUTES).getAttributes();
+            String queueName = String.format("%s-%s", AnalysisServerConfig.resultsQueue, AnalysisServerConfig.nodeId);
+            resultsQueueUrl = sqs.createQueue(new CreateQueueRequest(queueName).withAttributes(attributes)).getQueueUrl();
+        } else {
+            resultsQueueUrl = sqs.getQueueUrl(AnalysisServerConfig.resultsQueue).getQueueUrl();
+        }
+        consumer = new RegionalResultConsumer(sqs, resultsQueueUrl,
+                AnalysisServerConfig.resultAssemblyThreads, AnalysisServerConfig.maxResultBacklog);
 
         new Thread(consumer, "queue-consumer").start();
+
+        if (leases != null) {
+            leaseRenewer.scheduleWithFixedDelay(RegionalAnalysisManager::renewLeasesAndPublishStatuses,
+                    LEASE_MILLIS / 4, LEASE_MILLIS / 4, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Keep our leases on the jobs we are assembling alive, and publish their statuses for the other backend instances.
+     * If another instance has taken over a job, stop assembling it here.
+     */
+    private static void renewLeasesAndPublishStatuses () {
+        for (String jobId : consumer.assemblers.keySet()) {
+            try {
+                if (!leases.acquire(jobId)) {
+                    LOG.error("Lost lease on job {} to another backend instance, no longer assembling it", jobId);
+                    consumer.deleteJob(jobId);
+                    continue;
+                }
+                RegionalAnalysisStatus status = getLocalStatus(jobId);
+                if (status != null) {
+                    status.publishedAt = System.currentTimeMillis();
+                    statusByJob.put(jobId, status);
+                }
+            } catch (Exception e) {
+                LOG.error("Error renewing lease on job {}", jobId, e);
+            }
+        }
     }
 
     public static void enqueue (RegionalAnalysis regionalAnalysis) {
@@ -99,6 +178,15 @@ public class RegionalAnalysisManager {
             templateTask.percentiles = new double[] { regionalAnalysis.travelTimePercentile };
             templateTask.grid = String.format("%s/%s.grid", regionalAnalysis.regionId, regionalAnalysis.grid);
 
+            // Take ownership of the job and register it before the broker hands out any tasks, so that no results
+            // arrive for a job nobody is assembling.
+            if (leases != null && !leases.acquire(templateTask.jobId)) {
+                LOG.error("Job {} is already being assembled by another backend instance", templateTask.jobId);
+                return;
+            }
+            consumer.registerJob(templateTask,
+                    new TilingGridResultAssembler(templateTask, AnalysisServerConfig.resultsBucket));
+
             try {
                 LOG.info("Enqueuing tasks for job {} using template task.", templateTask.jobId);
                 ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -117,12 +205,10 @@ public class RegionalAnalysisManager {
                 }
             } catch (IOException e) {
                 LOG.error("error enqueueing requests", e);
+                consumer.deleteJob(templateTask.jobId);
+                if (leases != null) leases.release(templateTask.jobId);
                 throw AnalysisServerException.Unknown(e);
             }
-
-            consumer.registerJob(templateTask,
-                    new TilingGridResultAssembler(templateTask, AnalysisServerConfig.resultsBucket));
-
         });
     }
 
@@ -143,21 +229,126 @@ public class RegionalAnalysisManager {
         }
         // free temp disk space
         consumer.deleteJob(jobId);
+
+        if (leases != null) {
+            leases.release(jobId);
+            statusByJob.remove(jobId);
+        }
     }
 
+    /**
+     * Get the status of a job. If the job is being assembled by another backend instance, this is the status that
+     * instance last published, aged by the time since it was published. If that instance has stopped publishing (e.g.
+     * because it died) the status is marked stale.
+     */
     public static RegionalAnalysisStatus getStatus (String jobId) {
-        return consumer.assemblers.containsKey(jobId) ? new RegionalAnalysisStatus(consumer.assemblers.get(jobId)) : null;
+        RegionalAnalysisStatus status = getLocalStatus(jobId);
+        if (status == null && leases != null) {
+            status = statusByJob.get(jobId);
+            if (status != null) {
+                long millisSincePublished = Math.max(0, System.currentTimeMillis() - status.publishedAt);
+                if (status.secondsSinceLastResult >= 0) status.secondsSinceLastResult += millisSincePublished / 1000;
+                status.stale = millisSincePublished > LEASE_MILLIS;
+            }
+        }
+        return status;
+    }
+
+    private static RegionalAnalysisStatus getLocalStatus (String jobId) {
+        GridResultAssembler assembler = consumer.assemblers.get(jobId);
+        RegionalResultConsumer.JobLane lane = consumer.getLane(jobId);
+        return assembler != null && lane != null
+                ? new RegionalAnalysisStatus(assembler, lane, getWorkerCount(assembler.request.graphId))
+                : null;
+    }
+
+    /**
+     * Get the number of workers the broker reports for the given graph. The broker is asked at most once every
+     * WORKER_COUNT_REFRESH_MILLIS, on a background thread, so status requests never wait on the broker; they get the
+     * counts from the last refresh (zero until the first one completes).
+     */
+    public static int getWorkerCount (String graphId) {
+        if (System.currentTimeMillis() - workerCountsFetchedAt > WORKER_COUNT_REFRESH_MILLIS &&
+                fetchingWorkerCounts.compareAndSet(false, true)) {
+            workerCountFetcher.execute(() -> {
+                try {
+                    workerCountByGraph = fetchWorkerCounts();
+                    workerCountsFetchedAt = System.currentTimeMillis();
+                } finally {
+                    fetchingWorkerCounts.set(false);
+                }
+            });
+        }
+        return workerCountByGraph.getOrDefault(graphId, 0);
+    }
+
+    private static Map<String, Integer> fetchWorkerCounts () {
+        Map<String, Integer> counts = new HashMap<>();
+        CloseableHttpResponse res = null;
+        try {
+            HttpGet get = new HttpGet(String.format("%s/workers", brokerUrl));
+            get.setConfig(RequestConfig.custom()
+                    .setConnectionRequestTimeout(WORKER_COUNT_TIMEOUT_MILLIS)
+                    .setConnectTimeout(WORKER_COUNT_TIMEOUT_MILLIS)
+                    .setSocketTimeout(WORKER_COUNT_TIMEOUT_MILLIS)
+                    .build());
+            res = HttpUtil.httpClient.execute(get);
+            JsonNode workers = JsonUtil.objectMapper.readTree(res.getEntity().getContent());
+            for (JsonNode worker : workers) {
+                String graphId = worker.path("category").path("graphId").asText(null);
+                if (graphId != null) counts.merge(graphId, 1, Integer::sum);
+            }
+        } catch (Exception e) {
+            LOG.error("Error fetching worker counts from broker", e);
+        } finally {
+            if (res != null) try {
+                res.close();
+            } catch (IOException e) {
+                LOG.error("Error fetching worker counts from broker", e);
+            }
+        }
+        return counts;
     }
 
     public static final class RegionalAnalysisStatus implements Serializable {
         public int total;
         public int complete;
 
+        /** Number of results assembled per second for this job, over the last minute */
+        public double resultsPerSecond;
+
+        /** Number of results received from the queue that are waiting to be assembled */
+        public int backlog;
+
+        /** Estimated seconds until the job is complete at the current rate, or -1 if no results are arriving */
+        public long secondsRemaining;
+
+        /** Seconds since the last result was assembled, or -1 if none have been */
+        public long secondsSinceLastResult;
+
+        /** Number of workers the broker reports for the network this job is using */
+        public int workers;
+
+        /** When this status was published for the other backend instances, milliseconds since the epoch */
+        public long publishedAt;
+
+        /**
+         * True if the instance assembling this job has not published its status for longer than its lease, so it has
+         * probably stopped and the job will not progress.
+         */
+        public boolean stale;
+
         public RegionalAnalysisStatus () { /* do nothing */ }
 
-        public RegionalAnalysisStatus (GridResultAssembler assembler) {
+        public RegionalAnalysisStatus (GridResultAssembler assembler, RegionalResultConsumer.JobLane lane, int workers) {
             total = assembler.nTotal;
             complete = assembler.nComplete;
+            resultsPerSecond = lane.getResultsPerSecond();
+            backlog = lane.getBacklog();
+            secondsRemaining = resultsPerSecond > 0 ? (long) Math.ceil((total - complete) / resultsPerSecond) : -1;
+            long millisSinceLastResult = lane.getMillisSinceLastResult();
+            secondsSinceLastResult = millisSinceLastResult < 0 ? -1 : millisSinceLastResult / 1000;
+            this.workers = workers;
         }
     }
 
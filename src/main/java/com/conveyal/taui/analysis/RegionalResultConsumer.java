@@ -0,0 +1,325 @@
+package com.conveyal.taui.analysis;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.conveyal.r5.analyst.cluster.AnalysisTask;
+import com.conveyal.r5.analyst.cluster.GridResultAssembler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Consumes regional analysis results from the SQS results queue and hands them off to the assembler for their job.
+ *
+ * This replaces the single-threaded R5 GridResultQueueConsumer, which assembled every result on the thread that polled
+ * the queue, so one large job could hold up progress on every other job. Here the polling thread only receives
+ * messages in batches and sorts them by job. Each job has its own lane of pending messages, which is drained by at most
+ * one thread at a time (GridResultAssembler writes to a single buffer file and must not be called concurrently), while
+ * lanes for different jobs are drained in parallel on a shared pool.
+ *
+ * Results are only deleted from the queue once they have been assembled, so results waiting in a lane have their
+ * visibility timeout extended; otherwise SQS would deliver them again and they would be assembled twice. Results for
+ * jobs that are not registered here are left on the queue, as they may belong to another backend instance reading the
+ * same queue, or to a job that is about to be registered. Only results for jobs deleted here are deleted unseen.
+ */
+public class RegionalResultConsumer implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(RegionalResultConsumer.class);
+
+    /** SQS will return at most ten messages per receive call, and take at most ten entries per batch call */
+    private static final int RECEIVE_BATCH_SIZE = 10;
+
+    /** Long-poll the queue so we are not hammering SQS when no jobs are running */
+    private static final int RECEIVE_WAIT_SECONDS = 20;
+
+    /**
+     * Maximum number of results handled by one lane before it yields its thread back to the pool. This keeps a job with
+     * a huge backlog from monopolizing an assembly thread while other jobs are waiting.
+     */
+    static final int MAX_RESULTS_PER_DRAIN = 100;
+
+    private final AmazonSQS sqs;
+    private final String queueUrl;
+    private final Executor assemblyExecutor;
+
+    /** The visibility timeout of the queue, to which the visibility of results waiting in lanes is extended */
+    private final int visibilityTimeoutSeconds;
+
+    /** How often results waiting in lanes are checked for extension */
+    private final long extensionIntervalMillis;
+
+    /**
+     * Limits the total number of received but not yet assembled results, so that the polling thread stops pulling
+     * results off the queue when the assembly threads cannot keep up.
+     */
+    private final Semaphore backlogPermits;
+
+    public final Map<String, GridResultAssembler> assemblers = new ConcurrentHashMap<>();
+    private final Map<String, JobLane> lanes = new ConcurrentHashMap<>();
+
+    /** Jobs deleted on this instance, whose remaining results can be deleted from the queue */
+    private final Set<String> deletedJobs = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    /** Unknown jobs we have already logged, so that each redelivery of their results is not logged again */
+    private final Set<String> unknownJobs = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    public RegionalResultConsumer (AmazonSQS sqs, String queueUrl, int nThreads, int maxBacklog) {
+        this(sqs, queueUrl, Executors.newFixedThreadPool(nThreads), maxBacklog, Integer.parseInt(sqs
+                .getQueueAttributes(queueUrl, Collections.singletonList("VisibilityTimeout"))
+                .getAttributes()
+                .get("VisibilityTimeout")));
+
+        ScheduledExecutorService extender = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "result-visibility-extender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        extender.scheduleWithFixedDelay(this::extendVisibility, extensionIntervalMillis, extensionIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /** Create a consumer without scheduling visibility extension, for tests */
+    RegionalResultConsumer (AmazonSQS sqs, String queueUrl, Executor assemblyExecutor, int maxBacklog,
+                            int visibilityTimeoutSeconds) {
+        this.sqs = sqs;
+        this.queueUrl = queueUrl;
+        this.assemblyExecutor = assemblyExecutor;
+        this.backlogPermits = new Semaphore(maxBacklog);
+        this.visibilityTimeoutSeconds = visibilityTimeoutSeconds;
+        this.extensionIntervalMillis = Math.max(1000, visibilityTimeoutSeconds * 1000L / 3);
+    }
+
+    @Override
+    public void run () {
+        while (true) {
+            try {
+                // Wait until there is room for a full batch before receiving more messages.
+                backlogPermits.acquire(RECEIVE_BATCH_SIZE);
+                List<Message> messages;
+                try {
+                    messages = sqs.receiveMessage(new ReceiveMessageRequest(queueUrl)
+                            .withMaxNumberOfMessages(RECEIVE_BATCH_SIZE)
+                            .withWaitTimeSeconds(RECEIVE_WAIT_SECONDS)
+                            .withMessageAttributeNames("jobId"))
+                            .getMessages();
+                } finally {
+                    backlogPermits.release(RECEIVE_BATCH_SIZE);
+                }
+                handleReceived(messages);
+            } catch (InterruptedException e) {
+                LOG.warn("Regional result consumer interrupted, shutting down");
+                return;
+            } catch (Exception e) {
+                LOG.error("Error receiving regional analysis results", e);
+            }
+        }
+    }
+
+    /** Sort received messages into the lanes of their jobs */
+    void handleReceived (List<Message> messages) throws InterruptedException {
+        List<Message> deleted = new ArrayList<>();
+        for (Message message : messages) {
+            MessageAttributeValue jobIdAttribute = message.getMessageAttributes().get("jobId");
+            String jobId = jobIdAttribute == null ? null : jobIdAttribute.getStringValue();
+            JobLane lane = jobId == null ? null : lanes.get(jobId);
+            if (lane != null) {
+                backlogPermits.acquire();
+                lane.enqueue(message);
+            } else if (deletedJobs.contains(jobId)) {
+                deleted.add(message);
+            } else if (unknownJobs.add(String.valueOf(jobId))) {
+                // Leave it to become visible again, for another instance or until the job is registered. Results that
+                // nobody claims expire from the queue or are moved to its dead-letter queue.
+                LOG.warn("Received result for unknown job {}, leaving it on the queue", jobId);
+            }
+        }
+        deleteMessages(deleted);
+    }
+
+    public void registerJob (AnalysisTask request, GridResultAssembler assembler) {
+        assemblers.put(request.jobId, assembler);
+        registerJob(request.jobId, assembler::handleMessage);
+    }
+
+    /** Register a job whose results are handled by the given handler rather than a GridResultAssembler, for tests */
+    void registerJob (String jobId, ResultHandler handler) {
+        lanes.put(jobId, new JobLane(jobId, handler));
+        unknownJobs.remove(jobId);
+    }
+
+    public void deleteJob (String jobId) {
+        deletedJobs.add(jobId);
+        JobLane lane = lanes.remove(jobId);
+        GridResultAssembler assembler = assemblers.remove(jobId);
+        if (lane != null) lane.discard();
+        if (assembler != null) {
+            try {
+                assembler.terminate();
+            } catch (IOException e) {
+                LOG.error("Error terminating assembler for job {}", jobId, e);
+            }
+        }
+    }
+
+    /** @return the lane of results for the given job, or null if the job is not being assembled on this machine */
+    public JobLane getLane (String jobId) {
+        return lanes.get(jobId);
+    }
+
+    /** Remove handled messages from the queue, in batches of the largest size SQS allows. */
+    private void deleteMessages (List<Message> messages) {
+        for (int start = 0; start < messages.size(); start += RECEIVE_BATCH_SIZE) {
+            List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+            for (int i = start; i < Math.min(messages.size(), start + RECEIVE_BATCH_SIZE); i++) {
+                entries.add(new DeleteMessageBatchRequestEntry(Integer.toString(i), messages.get(i).getReceiptHandle()));
+            }
+            try {
+                sqs.deleteMessageBatch(queueUrl, entries);
+            } catch (Exception e) {
+                LOG.error("Error deleting {} results from queue", entries.size(), e);
+            }
+        }
+    }
+
+    /**
+     * Extend the visibility timeout of results waiting in lanes that would otherwise become visible again before the
+     * next check, so that they are not delivered a second time while they wait to be assembled.
+     */
+    void extendVisibility () {
+        long now = System.currentTimeMillis();
+        List<PendingResult> expiring = new ArrayList<>();
+        for (JobLane lane : lanes.values()) {
+            for (PendingResult result : lane.pending) {
+                if (result.visibleAtMillis - now < 2 * extensionIntervalMillis) expiring.add(result);
+            }
+        }
+
+        for (int start = 0; start < expiring.size(); start += RECEIVE_BATCH_SIZE) {
+            List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>();
+            for (int i = start; i < Math.min(expiring.size(), start + RECEIVE_BATCH_SIZE); i++) {
+                entries.add(new ChangeMessageVisibilityBatchRequestEntry(Integer.toString(i),
+                        expiring.get(i).message.getReceiptHandle()).withVisibilityTimeout(visibilityTimeoutSeconds));
+            }
+            try {
+                sqs.changeMessageVisibilityBatch(queueUrl, entries);
+                for (int i = start; i < Math.min(expiring.size(), start + RECEIVE_BATCH_SIZE); i++) {
+                    expiring.get(i).visibleAtMillis = now + visibilityTimeoutSeconds * 1000L;
+                }
+            } catch (Exception e) {
+                LOG.error("Error extending visibility of {} results waiting to be assembled", entries.size(), e);
+            }
+        }
+    }
+
+    /** Assembles a single result, e.g. GridResultAssembler::handleMessage */
+    interface ResultHandler {
+        void handle (Message message) throws Exception;
+    }
+
+    /** A received message waiting in a lane, and when it will become visible on the queue again */
+    private class PendingResult {
+        final Message message;
+        volatile long visibleAtMillis;
+
+        PendingResult (Message message) {
+            this.message = message;
+            this.visibleAtMillis = System.currentTimeMillis() + visibilityTimeoutSeconds * 1000L;
+        }
+    }
+
+    /**
+     * The pending results for a single job. Results are appended by the polling thread and assembled by at most one
+     * pool thread at a time, so the assembler for a job only ever has one writer.
+     */
+    public class JobLane {
+        public final String jobId;
+        private final ResultHandler handler;
+        private final Queue<PendingResult> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private final AtomicInteger backlog = new AtomicInteger();
+        private final ThroughputMeter throughput = new ThroughputMeter();
+        private volatile boolean discarded = false;
+
+        private JobLane (String jobId, ResultHandler handler) {
+            this.jobId = jobId;
+            this.handler = handler;
+        }
+
+        private void enqueue (Message message) {
+            pending.add(new PendingResult(message));
+            backlog.incrementAndGet();
+            schedule();
+        }
+
+        private void schedule () {
+            if (!pending.isEmpty() && scheduled.compareAndSet(false, true)) {
+                assemblyExecutor.execute(this::drain);
+            }
+        }
+
+        private void drain () {
+            List<Message> handled = new ArrayList<>();
+            try {
+                PendingResult result;
+                for (int i = 0; i < MAX_RESULTS_PER_DRAIN && (result = pending.poll()) != null; i++) {
+                    try {
+                        if (!discarded) {
+                            handler.handle(result.message);
+                            throughput.record(1);
+                        }
+                        handled.add(result.message);
+                    } catch (Exception e) {
+                        // Leave the message on the queue, it will become visible again and be redelivered.
+                        LOG.error("Error assembling result for job {}", jobId, e);
+                    } finally {
+                        backlog.decrementAndGet();
+                        backlogPermits.release();
+                    }
+                }
+            } finally {
+                deleteMessages(handled);
+                scheduled.set(false);
+                // Messages may have arrived after we stopped polling; reschedule at the back of the pool's queue.
+                schedule();
+            }
+        }
+
+        private void discard () {
+            discarded = true;
+        }
+
+        /** @return the number of results received from the queue but not yet assembled */
+        public int getBacklog () {
+            return backlog.get();
+        }
+
+        /** @return the number of results assembled per second over the last minute */
+        public double getResultsPerSecond () {
+            return throughput.getRate();
+        }
+
+        /** @return milliseconds since a result was last assembled for this job, or -1 if none have been */
+        public long getMillisSinceLastResult () {
+            return throughput.getMillisSinceLastEvent();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.conveyal.taui.analysis;
+
+import com.conveyal.r5.common.JsonUtilities;
+import com.conveyal.taui.models.Modification;
+import com.conveyal.taui.persistence.Persistence;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.mongodb.QueryBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Caches the R5 form of the modifications in each project variant, along with their fingerprint, so that analysis
+ * requests on a project that has not changed do not need to load every modification, convert it to R5 and serialize
+ * the result to compute the fingerprint.
+ *
+ * Entries are keyed on the ID and nonce of each modification in the variant. The nonce changes whenever a modification
+ * is saved, so an edited, added or removed modification gives a new key and the stale entry is never used again. Only
+ * those few fields are read from the database to make the key.
+ *
+ * The scenario is identified by a fingerprint combining a hash of each of its modifications in order (the order in
+ * which modifications are applied matters). Each modification is hashed by streaming its JSON into the hash function,
+ * and the hash of each version of a modification is kept, so a scenario that differs from a cached one in a single
+ * modification only hashes that modification.
+ */
+public class ScenarioCache {
+    private static final int MAX_SCENARIOS = 200;
+    private static final int MAX_FINGERPRINTS = 10000;
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final Cache<String, CompiledScenario> cache = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SCENARIOS)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
+
+    /** The hash of the R5 form of each version of a modification, keyed on its ID and nonce */
+    private final Cache<String, HashCode> fingerprints = CacheBuilder.newBuilder()
+            .maximumSize(MAX_FINGERPRINTS)
+            .build();
+
+    /** Get the R5 modifications for a project variant, converting them only if they have changed. */
+    public CompiledScenario get (String accessGroup, String projectId, int variantIndex) {
+        // The type is needed to deserialize the modifications, and the variants to filter them.
+        List<Modification> versions = Persistence.modifications
+                .findPermitted(QueryBuilder.start("projectId").is(projectId).get(), accessGroup,
+                        "_id", "nonce", "type", "variants")
+                .stream()
+                .filter(m -> variantIndex < m.variants.length && m.variants[variantIndex])
+                .collect(Collectors.toList());
+
+        StringBuilder key = new StringBuilder(projectId).append(':').append(variantIndex);
+        for (Modification m : versions) key.append(':').append(m._id).append('@').append(m.nonce);
+
+        CompiledScenario compiled = cache.getIfPresent(key.toString());
+        if (compiled != null) return compiled;
+
+        compiled = compile(versions);
+        if (compiled != null) cache.put(key.toString(), compiled);
+        else compiled = compile(accessGroup, projectId, variantIndex);
+        return compiled;
+    }
+
+    /**
+     * Load and convert the given versions of modifications, in the given order.
+     * @return null if any of them has changed since the versions were read
+     */
+    private CompiledScenario compile (List<Modification> versions) {
+        if (versions.isEmpty()) return CompiledScenario.EMPTY;
+
+        List<String> ids = versions.stream().map(m -> m._id).collect(Collectors.toList());
+        Map<String, Modification> byId = new HashMap<>();
+        for (Modification m : Persistence.modifications.find(QueryBuilder.start("_id").in(ids).get())) {
+            byId.put(m._id, m);
+        }
+
+        List<Modification> current = new ArrayList<>();
+        for (Modification version : versions) {
+            Modification m = byId.get(version._id);
+            if (m == null || !version.nonce.equals(m.nonce)) return null;
+            current.add(m);
+        }
+        return convert(current);
+    }
+
+    /** Load and convert the current modifications of a variant without caching them, when they are being edited. */
+    private CompiledScenario compile (String accessGroup, String projectId, int variantIndex) {
+        return convert(Persistence.modifications
+                .findPermitted(QueryBuilder.start("projectId").is(projectId).get(), accessGroup)
+                .stream()
+                .filter(m -> variantIndex < m.variants.length && m.variants[variantIndex])
+                .collect(Collectors.toList()));
+    }
+
+    private CompiledScenario convert (List<Modification> modifications) {
+        List<com.conveyal.r5.analyst.scenario.Modification> r5Modifications = new ArrayList<>();
+        List<HashCode> hashes = new ArrayList<>();
+        for (Modification m : modifications) {
+            com.conveyal.r5.analyst.scenario.Modification r5Modification = m.toCompiledR5();
+            r5Modifications.add(r5Modification);
+            String version = m._id + "@" + m.nonce;
+            HashCode hash = fingerprints.getIfPresent(version);
+            if (hash == null) {
+                hash = hash(r5Modification);
+                fingerprints.put(version, hash);
+            }
+            hashes.add(hash);
+        }
+        return new CompiledScenario(r5Modifications, hashes);
+    }
+
+    /** Hash the JSON representation of a modification without building it in memory. */
+    private static HashCode hash (com.conveyal.r5.analyst.scenario.Modification modification) {
+        Hasher hasher = HASH_FUNCTION.newHasher();
+        try (OutputStream out = Funnels.asOutputStream(hasher)) {
+            JsonUtilities.objectMapper.writeValue(out, modification);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return hasher.hash();
+    }
+
+    /** The R5 modifications of a project variant, which must not be changed as they are shared between requests */
+    public static class CompiledScenario {
+        public final List<com.conveyal.r5.analyst.scenario.Modification> modifications;
+
+        /** Fingerprint of the modifications in order, identifying this exact revision of the scenario */
+        public final String fingerprint;
+
+        private CompiledScenario (List<com.conveyal.r5.analyst.scenario.Modification> modifications,
+                                  List<HashCode> hashes) {
+            this.modifications = Collections.unmodifiableList(modifications);
+            Hasher hasher = HASH_FUNCTION.newHasher();
+            for (HashCode hash : hashes) hasher.putBytes(hash.asBytes());
+            this.fingerprint = Long.toHexString(hasher.hash().asLong());
+        }
+
+        /** The scenario with no modifications, used for the baseline */
+        public static final CompiledScenario EMPTY =
+                new CompiledScenario(Collections.emptyList(), Collections.emptyList());
+    }
+}
@@ -0,0 +1,145 @@
+package com.conveyal.taui.analysis;
+
+import com.conveyal.r5.analyst.cluster.TravelTimeSurfaceTask;
+import com.conveyal.r5.analyst.scenario.Scenario;
+import com.conveyal.r5.common.JsonUtilities;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches single point travel time surfaces returned by the broker, so that clicking an origin again (e.g. when
+ * toggling between variants) does not send the same task to a worker again. Entries are keyed on a hash of the fully
+ * populated task, and the cache is bounded by the total number of bytes of the surfaces it holds.
+ */
+public class SinglePointCache {
+    private static final Logger LOG = LoggerFactory.getLogger(SinglePointCache.class);
+
+    private final Cache<Key, CachedSurface> cache;
+
+    /** Surfaces larger than this are not cached, so that one huge surface cannot flush out everything else. */
+    public final int maxEntryBytes;
+
+    /** The scenario ID (which includes the scenario checksum) last seen for each project and variant */
+    private final Map<String, String> scenarioIdByVariant = new ConcurrentHashMap<>();
+
+    public SinglePointCache (long maxBytes) {
+        this.maxEntryBytes = (int) Math.min(Integer.MAX_VALUE, maxBytes / 8);
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Key key, CachedSurface surface) -> surface.body.length)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Make the cache key for a task. The key covers every field of the task, and the encoding the client accepts,
+     * since the surface is cached exactly as the broker sent it. The scenario itself is left out of the hash as it can
+     * be large; its ID already includes a checksum of its modifications.
+     */
+    public Key getKey (TravelTimeSurfaceTask task, String acceptEncoding) {
+        Scenario scenario = task.scenario;
+        byte[] taskBytes;
+        try {
+            task.scenario = null;
+            taskBytes = JsonUtilities.objectMapper.writeValueAsBytes(task);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        } finally {
+            task.scenario = scenario;
+        }
+
+        String hash = Hashing.sha256().newHasher()
+                .putBytes(taskBytes)
+                .putUnencodedChars(acceptEncoding == null ? "" : acceptEncoding)
+                .hash()
+                .toString();
+        return new Key(task.scenarioId, hash);
+    }
+
+    /** @return the cached surface for the given key, or null if there is none */
+    public CachedSurface get (Key key) {
+        return cache.getIfPresent(key);
+    }
+
+    public void put (Key key, CachedSurface surface) {
+        if (surface.body.length <= maxEntryBytes) cache.put(key, surface);
+    }
+
+    /**
+     * Record the scenario currently in use for a project variant. When the modifications in the variant have changed,
+     * surfaces computed with the old scenario can never be requested again, so they are dropped right away rather than
+     * waiting to be evicted.
+     */
+    public void updateScenario (String projectId, int variantIndex, String scenarioId) {
+        String previousScenarioId = scenarioIdByVariant.put(projectId + ":" + variantIndex, scenarioId);
+        if (previousScenarioId != null && !previousScenarioId.equals(scenarioId)) {
+            LOG.info("Scenario {} replaced by {}, invalidating cached surfaces", previousScenarioId, scenarioId);
+            cache.asMap().keySet().removeIf(k -> previousScenarioId.equals(k.scenarioId));
+        }
+    }
+
+    public CacheStatus getStatus () {
+        return new CacheStatus(cache.stats(), cache.size());
+    }
+
+    public static final class Key {
+        public final String scenarioId;
+        public final String hash;
+
+        private Key (String scenarioId, String hash) {
+            this.scenarioId = scenarioId;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals (Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return hash.equals(other.hash) && Objects.equals(scenarioId, other.scenarioId);
+        }
+
+        @Override
+        public int hashCode () {
+            return hash.hashCode();
+        }
+    }
+
+    /** A travel time surface exactly as the broker returned it */
+    public static final class CachedSurface {
+        public final byte[] body;
+        public final String contentType;
+        public final String contentEncoding;
+
+        public CachedSurface (byte[] body, String contentType, String contentEncoding) {
+            this.body = body;
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+        }
+    }
+
+    /** Hit and miss counts for the cache */
+    public static final class CacheStatus implements Serializable {
+        public long hits;
+        public long misses;
+        public long evictions;
+        public long entries;
+
+        public CacheStatus (CacheStats stats, long entries) {
+            hits = stats.hitCount();
+            misses = stats.missCount();
+            evictions = stats.evictionCount();
+            this.entries = entries;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.conveyal.taui.analysis;
+
+import com.conveyal.r5.analyst.Grid;
+import com.conveyal.r5.analyst.cluster.TravelTimeSurfaceTask;
+import com.conveyal.r5.common.JsonUtilities;
+import com.conveyal.taui.models.SpeculativeAnalysisRequest.TrajectoryPoint;
+import com.conveyal.taui.util.HttpUtil;
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Computes travel time surfaces for the places a user is likely to drop the origin marker while they are still
+ * dragging it, so that the surface is already in the single point cache (or on its way) when the marker is dropped.
+ *
+ * Speculative tasks are strictly lower priority than real requests: they only use broker request permits while more
+ * than half of them are free, and they run on a small pool of their own. Each user has at most MAX_TASKS_PER_USER
+ * speculative tasks at once, and each new trajectory from a user cancels that user's older speculative tasks, both
+ * those still queued and those waiting on the broker. The pool's queue is bounded and drops its oldest tasks when
+ * full, as those are the most likely to be stale.
+ *
+ * Speculative origins are snapped to the center of their pixel, so the request made on drop must be snapped the same
+ * way (see snapToPixelCenter) to find them.
+ */
+public class SpeculativePrefetcher {
+    private static final Logger LOG = LoggerFactory.getLogger(SpeculativePrefetcher.class);
+
+    public static final int MAX_TASKS_PER_USER = 4;
+
+    /** How far ahead of the last position in the trajectory to guess where the marker will be dropped */
+    private static final int[] LOOKAHEAD_MILLIS = { 0, 150, 300, 600 };
+
+    private final String brokerUrl;
+    private final SinglePointCache cache;
+    private final Semaphore brokerRequestPermits;
+    private final int reservedPermits;
+    private final ExecutorService executor;
+
+    private final Map<String, UserTasks> tasksByUser = new ConcurrentHashMap<>();
+
+    /** Speculative tasks on their way to the broker, so that the real request on drop can wait for them */
+    private final Map<SinglePointCache.Key, CompletableFuture<SinglePointCache.CachedSurface>> inFlight =
+            new ConcurrentHashMap<>();
+
+    public SpeculativePrefetcher (String brokerUrl, SinglePointCache cache, Semaphore brokerRequestPermits,
+                                  int totalPermits) {
+        this.brokerUrl = brokerUrl;
+        this.cache = cache;
+        this.brokerRequestPermits = brokerRequestPermits;
+        this.reservedPermits = totalPermits / 2;
+        int nThreads = Math.max(1, totalPermits / 4);
+        this.executor = new ThreadPoolExecutor(nThreads, nThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(nThreads * MAX_TASKS_PER_USER), r -> {
+                    Thread thread = new Thread(r, "speculative-prefetch");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }, new ThreadPoolExecutor.DiscardOldestPolicy());
+    }
+
+    /** Move the task's origin to the center of the pixel containing it. */
+    public static void snapToPixelCenter (TravelTimeSurfaceTask task) {
+        int x = Grid.lonToPixel(task.fromLon, task.zoom);
+        int y = Grid.latToPixel(task.fromLat, task.zoom);
+        double tileSize = 256 * Math.pow(2, task.zoom);
+        task.fromLon = (float) ((x + 0.5) / tileSize * 360 - 180);
+        task.fromLat = (float) Math.toDegrees(Math.atan(Math.sinh(Math.PI - 2 * Math.PI * (y + 0.5) / tileSize)));
+    }
+
+    /**
+     * Cancel the user's older speculative tasks and start new ones for the pixels the marker is likely to be dropped
+     * on, given its recent trajectory.
+     *
+     * @return the number of speculative tasks started
+     */
+    public int prefetch (String user, TravelTimeSurfaceTask task, List<TrajectoryPoint> trajectory) {
+        UserTasks userTasks = tasksByUser.computeIfAbsent(user, u -> new UserTasks());
+        long generation = userTasks.cancel();
+
+        int started = 0;
+        for (TravelTimeSurfaceTask speculativeTask : predictTasks(task, trajectory)) {
+            SinglePointCache.Key key = cache.getKey(speculativeTask, null);
+            if (cache.get(key) != null || inFlight.containsKey(key)) continue;
+            executor.execute(() -> compute(userTasks, generation, speculativeTask, key));
+            started++;
+        }
+        return started;
+    }
+
+    /** Cancel all of the user's speculative tasks except the one with the given key, e.g. once the marker is dropped */
+    public void cancelAllExcept (String user, SinglePointCache.Key keep) {
+        UserTasks userTasks = tasksByUser.get(user);
+        if (userTasks != null) userTasks.cancelAllExcept(keep);
+    }
+
+    /** @return the result of a speculative task for the given key that is on its way to the broker, or null */
+    public CompletableFuture<SinglePointCache.CachedSurface> getInFlight (SinglePointCache.Key key) {
+        return inFlight.get(key);
+    }
+
+    /** Extrapolate the trajectory to the most likely drop points, one task per distinct pixel. */
+    private List<TravelTimeSurfaceTask> predictTasks (TravelTimeSurfaceTask task, List<TrajectoryPoint> trajectory) {
+        TrajectoryPoint last = trajectory.get(trajectory.size() - 1);
+        double lonPerMilli = 0;
+        double latPerMilli = 0;
+        if (trajectory.size() > 1) {
+            TrajectoryPoint previous = trajectory.get(trajectory.size() - 2);
+            long elapsed = last.time - previous.time;
+            if (elapsed > 0) {
+                lonPerMilli = (last.lon - previous.lon) / (double) elapsed;
+                latPerMilli = (last.lat - previous.lat) / (double) elapsed;
+            }
+        }
+
+        Set<Long> pixels = new LinkedHashSet<>();
+        List<TravelTimeSurfaceTask> tasks = new ArrayList<>();
+        for (int lookahead : LOOKAHEAD_MILLIS) {
+            TravelTimeSurfaceTask speculativeTask = (TravelTimeSurfaceTask) task.clone();
+            speculativeTask.fromLon = (float) (last.lon + lonPerMilli * lookahead);
+            speculativeTask.fromLat = (float) (last.lat + latPerMilli * lookahead);
+            long pixel = ((long) Grid.lonToPixel(speculativeTask.fromLon, task.zoom) << 32) |
+                    Grid.latToPixel(speculativeTask.fromLat, task.zoom);
+            if (pixels.add(pixel)) {
+                snapToPixelCenter(speculativeTask);
+                tasks.add(speculativeTask);
+            }
+            if (tasks.size() == MAX_TASKS_PER_USER) break;
+        }
+        return tasks;
+    }
+
+    private void compute (UserTasks userTasks, long generation, TravelTimeSurfaceTask task, SinglePointCache.Key key) {
+        // Skip tasks that were superseded while queued, and leave the broker to real requests when it is busy.
+        if (userTasks.generation.get() != generation) return;
+        if (brokerRequestPermits.availablePermits() <= reservedPermits || !brokerRequestPermits.tryAcquire()) return;
+
+        CompletableFuture<SinglePointCache.CachedSurface> result = new CompletableFuture<>();
+        HttpPost post = new HttpPost(brokerUrl);
+        try {
+            if (inFlight.putIfAbsent(key, result) != null) return;
+            if (!userTasks.start(generation, key, post)) return;
+
+            post.setEntity(new ByteArrayEntity(JsonUtilities.objectMapper.writeValueAsBytes(task), ContentType.APPLICATION_JSON));
+            try (CloseableHttpResponse brokerRes = HttpUtil.singlePointHttpClient.execute(post)) {
+                byte[] body = EntityUtils.toByteArray(brokerRes.getEntity());
+                if (brokerRes.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
+                    Header contentType = brokerRes.getFirstHeader("Content-Type");
+                    Header contentEncoding = brokerRes.getFirstHeader("Content-Encoding");
+                    SinglePointCache.CachedSurface surface = new SinglePointCache.CachedSurface(body,
+                            contentType == null ? null : contentType.getValue(),
+                            contentEncoding == null ? null : contentEncoding.getValue());
+                    cache.put(key, surface);
+                    result.complete(surface);
+                }
+            }
+        } catch (Exception e) {
+            // Cancelled tasks are aborted, which shows up here as an exception.
+            if (!post.isAborted()) LOG.warn("Speculative single point task failed", e);
+        } finally {
+            userTasks.finish(post);
+            inFlight.remove(key, result);
+            result.complete(null);
+            brokerRequestPermits.release();
+        }
+    }
+
+    /** The speculative tasks of one user */
+    private static class UserTasks {
+        /** Incremented for each new trajectory, making tasks from older trajectories stale */
+        final AtomicLong generation = new AtomicLong();
+
+        final Map<HttpPost, SinglePointCache.Key> running = new ConcurrentHashMap<>();
+
+        /** Make all existing tasks stale and abort those waiting on the broker, returning the new generation. */
+        synchronized long cancel () {
+            long newGeneration = generation.incrementAndGet();
+            cancelAllExcept(null);
+            return newGeneration;
+        }
+
+        synchronized void cancelAllExcept (SinglePointCache.Key keep) {
+            running.forEach((post, key) -> {
+                if (!key.equals(keep)) post.abort();
+            });
+        }
+
+        /** Register a task about to call the broker, unless it is stale or the user already has too many running. */
+        synchronized boolean start (long taskGeneration, SinglePointCache.Key key, HttpPost post) {
+            if (generation.get() != taskGeneration || running.size() >= MAX_TASKS_PER_USER) return false;
+            running.put(post, key);
+            return true;
+        }
+
+        void finish (HttpPost post) {
+            running.remove(post);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.conveyal.taui.analysis;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks how many events (e.g. regional analysis results) have happened over a sliding window of recent seconds,
+ * without taking any locks. Each second of the window has its own counter, stamped with the second it is counting;
+ * a counter holding a stale second is reset the first time it is touched in a later second.
+ */
+public class ThroughputMeter {
+    /** Length of the sliding window, seconds */
+    public static final int WINDOW_SECONDS = 60;
+
+    /** The second (since the epoch) each bucket is currently counting */
+    private final AtomicLongArray bucketSeconds = new AtomicLongArray(WINDOW_SECONDS);
+
+    private final AtomicLongArray bucketCounts = new AtomicLongArray(WINDOW_SECONDS);
+
+    private final AtomicLong firstEventMillis = new AtomicLong(0);
+
+    private final AtomicLong lastEventMillis = new AtomicLong(0);
+
+    /** Source of the current time in milliseconds, replaceable in tests */
+    private final LongSupplier clock;
+
+    public ThroughputMeter () {
+        this(System::currentTimeMillis);
+    }
+
+    ThroughputMeter (LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /** Record that n events happened just now. */
+    public void record (int n) {
+        long now = clock.getAsLong();
+        long second = now / 1000;
+        int bucket = (int) (second % WINDOW_SECONDS);
+        long bucketSecond = bucketSeconds.get(bucket);
+        if (bucketSecond != second && bucketSeconds.compareAndSet(bucket, bucketSecond, second)) {
+            // We won the race to move this bucket on to the current second. An increment from another thread may be
+            // lost between the two calls, which is fine for a rate estimate.
+            bucketCounts.set(bucket, 0);
+        }
+        bucketCounts.addAndGet(bucket, n);
+        firstEventMillis.compareAndSet(0, now);
+        lastEventMillis.set(now);
+    }
+
+    /** @return events per second over the sliding window, or over the time since the first event if that is shorter */
+    public double getRate () {
+        long first = firstEventMillis.get();
+        if (first == 0) return 0;
+
+        long now = clock.getAsLong();
+        long currentSecond = now / 1000;
+        long total = 0;
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            long age = currentSecond - bucketSeconds.get(i);
+            if (age >= 0 && age < WINDOW_SECONDS) total += bucketCounts.get(i);
+        }
+
+        double windowSeconds = Math.min(WINDOW_SECONDS, Math.max(1000, now - first) / 1000d);
+        return total / windowSeconds;
+    }
+
+    /** @return milliseconds since the last event, or -1 if there have not been any events */
+    public long getMillisSinceLastEvent () {
+        long last = lastEventMillis.get();
+        return last == 0 ? -1 : clock.getAsLong() - last;
+    }
+}
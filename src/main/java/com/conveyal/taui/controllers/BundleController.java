@@ -129,7 +129,7 @@ public class BundleController {
                         try {
                             FeedSource fs = ApiMain.registerFeedSource(feed -> String.format("%s_%s", feed.feedId, bundle._id), file);
                             bundle.feedsComplete += 1;
-                            Persistence.bundles.put(bundle);
+                            Persistence.bundleStatusUpdates.update(bundle);
                             return fs;
                         } catch (Exception e) {
                             // This catches any error while processing a feed with the GTFS Api and needs to be more
@@ -139,7 +139,7 @@ public class BundleController {
                             // flow.
                             bundle.status = Bundle.Status.ERROR;
                             bundle.errorCode = e.getMessage();
-                            Persistence.bundles.put(bundle);
+                            Persistence.bundleStatusUpdates.put(bundle);
                             throw AnalysisServerException.Unknown(e);
                         }
                     })
@@ -151,7 +151,7 @@ public class BundleController {
                 if (seenFeedIds.contains(fs.feed.feedId)) {
                     bundle.status = Bundle.Status.ERROR;
                     bundle.errorCode = "duplicate-feed-_id";
-                    Persistence.bundles.put(bundle);
+                    Persistence.bundleStatusUpdates.put(bundle);
                     return;
                 }
 
@@ -183,7 +183,7 @@ public class BundleController {
                 bundle.errorCode = "cache-write-error";
             }
 
-            Persistence.bundles.put(bundle);
+            Persistence.bundleStatusUpdates.put(bundle);
 
             directory.delete();
         }).start();
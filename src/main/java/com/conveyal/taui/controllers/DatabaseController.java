@@ -0,0 +1,41 @@
+package com.conveyal.taui.controllers;
+
+import com.conveyal.taui.AnalysisServerConfig;
+import com.conveyal.taui.AnalysisServerException;
+import com.conveyal.taui.persistence.DatabaseDiagnostics;
+import com.conveyal.taui.persistence.Persistence;
+import com.conveyal.taui.util.JsonUtil;
+import spark.Request;
+import spark.Response;
+
+import static spark.Spark.get;
+
+/**
+ * Diagnostics of the database, to find queries that are not using indexes. They cover every access group's queries,
+ * so they are only available to users in the ADMIN_GROUP. Computing them runs several queries on every collection,
+ * so the result is reused for DIAGNOSTICS_CACHE_MILLIS and only one request computes it at a time.
+ */
+public class DatabaseController {
+    private static final long DIAGNOSTICS_CACHE_MILLIS = 60 * 1000;
+
+    private static DatabaseDiagnostics diagnostics;
+    private static long diagnosedAt;
+
+    public static synchronized DatabaseDiagnostics getDiagnostics (Request req, Response res) {
+        String accessGroup = req.attribute("accessGroup");
+        if (AnalysisServerConfig.adminGroup == null || !AnalysisServerConfig.adminGroup.equals(accessGroup)) {
+            throw AnalysisServerException.Forbidden("Database diagnostics are only available to administrators.");
+        }
+
+        long now = System.currentTimeMillis();
+        if (diagnostics == null || now - diagnosedAt > DIAGNOSTICS_CACHE_MILLIS) {
+            diagnostics = Persistence.getDiagnostics(accessGroup);
+            diagnosedAt = now;
+        }
+        return diagnostics;
+    }
+
+    public static void register () {
+        get("/api/db/diagnostics", DatabaseController::getDiagnostics, JsonUtil.objectMapper::writeValueAsString);
+    }
+}
@@ -1,5 +1,6 @@
 package com.conveyal.taui.controllers;
 
+import com.conveyal.r5.common.JsonUtilities;
 import com.conveyal.taui.models.AbstractTimetable;
 import com.conveyal.taui.models.AddTripPattern;
 import com.conveyal.taui.models.ConvertToFrequency;
@@ -11,6 +12,7 @@ import spark.Request;
 import spark.Response;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -30,11 +32,17 @@ public class ModificationController {
     }
 
     public static Modification create (Request request, Response response) throws IOException {
-        return Persistence.modifications.createFromJSONRequest(request, Modification.class);
+        Modification modification = JsonUtilities.objectMapper.readValue(request.body(), Modification.class);
+        modification.accessGroup = request.attribute("accessGroup");
+        modification.createdBy = request.attribute("email");
+        modification.compile();
+        return Persistence.modifications.create(modification);
     }
 
     public static Modification update (Request request, Response response) throws IOException {
-        return Persistence.modifications.updateFromJSONRequest(request, Modification.class);
+        Modification modification = JsonUtilities.objectMapper.readValue(request.body(), Modification.class);
+        modification.compile();
+        return Persistence.modifications.updateByUserIfPermitted(modification, request.attribute("email"), request.attribute("accessGroup"));
     }
 
     public static Modification deleteModification (Request req, Response res) {
@@ -63,7 +71,9 @@ public class ModificationController {
         Modification modification = Persistence.modifications.findByIdFromRequestIfPermitted(req);
 
         String oldId = modification._id;
-        Modification clone = Persistence.modifications.create(modification);
+        // The object we fetched is our own copy, so it becomes the clone under a new ID
+        Modification clone = modification;
+        clone._id = new ObjectId().toString();
 
         // Matched up the phased entries and timetables
         if (modification.getType().equals(AddTripPattern.type)) {
@@ -78,8 +88,11 @@ public class ModificationController {
         // Set `updateBy` manually, `createdBy` stays with the original modification author
         clone.updatedBy = req.attribute("email");
 
-        // Update the clone
-        return Persistence.modifications.put(clone);
+        // The phase IDs have changed, so the R5 form must be compiled again
+        clone.compile();
+
+        // Insert the clone with its final contents, rather than inserting and then updating it
+        return Persistence.modifications.createAll(Collections.singletonList(clone)).get(0);
     }
 
     public static void register () {
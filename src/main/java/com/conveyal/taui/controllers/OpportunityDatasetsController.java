@@ -12,6 +12,7 @@ import com.conveyal.taui.grids.GridExporter;
 import com.conveyal.taui.grids.SeamlessCensusGridExtractor;
 import com.conveyal.taui.models.Region;
 import com.conveyal.taui.persistence.Persistence;
+import com.conveyal.taui.persistence.StatusRegistry;
 import com.conveyal.taui.util.Jobs;
 import com.conveyal.taui.util.JsonUtil;
 import com.google.common.io.Files;
@@ -30,8 +31,6 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -61,14 +60,15 @@ public class OpportunityDatasetsController {
     /**
      * Store upload status objects
      */
-    private static List<OpportunityDatasetUploadStatus> uploadStatuses = new ArrayList<>();
-
-    private static void addStatusAndRemoveOldStatuses(OpportunityDatasetUploadStatus status) {
-        uploadStatuses.add(status);
-        LocalDateTime now = LocalDateTime.now();
-        uploadStatuses.removeIf(s -> s.completedAt != null &&
-                LocalDateTime.ofInstant(s.completedAt.toInstant(), ZoneId.systemDefault()).isBefore(now.minusDays(7))
-        );
+    private static final StatusRegistry<OpportunityDatasetUploadStatus> uploadStatuses =
+            Persistence.getStatusRegistry("opportunity-dataset-uploads", OpportunityDatasetUploadStatus.class);
+
+    /**
+     * Save a new or modified status so that it is visible to all backend instances. Old statuses are removed by the
+     * registry once they stop being updated.
+     */
+    private static void updateStatus (OpportunityDatasetUploadStatus status) {
+        uploadStatuses.put(status.id, status);
     }
 
     public static Object getOpportunityDataset(Request req, Response res) {
@@ -85,6 +85,7 @@ public class OpportunityDatasetsController {
     public static List<OpportunityDatasetUploadStatus> getRegionUploadStatuses(Request req, Response res) {
         String regionId = req.params("regionId");
         return uploadStatuses
+                .values()
                 .stream()
                 .filter(status -> {
                     Boolean b = status.regionId.equals(regionId);
@@ -95,7 +96,7 @@ public class OpportunityDatasetsController {
 
     public static boolean clearStatus(Request req, Response res) {
         String statusId = req.params("statusId");
-        return uploadStatuses.removeIf(s -> s.id.equals(statusId));
+        return uploadStatuses.remove(statusId);
     }
 
     /**
@@ -119,7 +120,7 @@ public class OpportunityDatasetsController {
         String regionId = req.params("regionId");
         OpportunityDatasetUploadStatus status = new OpportunityDatasetUploadStatus(regionId, dataSet);
 
-        addStatusAndRemoveOldStatuses(status);
+        updateStatus(status);
 
         Jobs.service.submit(() -> {
             try {
@@ -146,10 +147,12 @@ public class OpportunityDatasetsController {
                     status.status = Status.ERROR;
                     status.message = "Unable to create opportunity dataset from the files uploaded.";
                     status.completed();
+                    updateStatus(status);
                     return null;
                 } else {
                     status.status = Status.UPLOADING;
                     status.totalGrids = grids.size();
+                    updateStatus(status);
                     LOG.info("Uploading opportunity dataset to S3");
                     List<Region.OpportunityDataset> opportunities = writeOpportunityDatasetToS3(grids, regionId, dataSet, status);
                     Region region = Persistence.regions.get(regionId).clone();
@@ -162,11 +165,13 @@ public class OpportunityDatasetsController {
                 status.status = Status.ERROR;
                 status.message = e.getBody();
                 status.completed();
+                updateStatus(status);
                 return null;
             } catch (Exception e) {
                 status.status = Status.ERROR;
                 status.message = e.getMessage();
                 status.completed();
+                updateStatus(status);
                 return null;
             }
         });
@@ -329,11 +334,13 @@ public class OpportunityDatasetsController {
                     status.status = Status.DONE;
                     status.completed();
                 }
+                updateStatus(status);
                 LOG.info("Completed {}/{} uploads for {}", status.uploadedGrids, status.totalGrids, status.name);
             } catch (IOException e) {
                 status.status = Status.ERROR;
                 status.message = e.getMessage();
                 status.completed();
+                updateStatus(status);
                 throw AnalysisServerException.Unknown(e);
             }
 
@@ -347,7 +354,7 @@ public class OpportunityDatasetsController {
         return ret;
     }
 
-    private static class OpportunityDatasetUploadStatus {
+    public static class OpportunityDatasetUploadStatus {
         public String id;
         public int totalFeatures = 0;
         public int completedFeatures = 0;
@@ -367,12 +374,15 @@ public class OpportunityDatasetsController {
             this.createdAt = new Date();
         }
 
+        /** restore default constructor for use in deserialization */
+        public OpportunityDatasetUploadStatus () { /* do nothing */ }
+
         public void completed () {
             this.completedAt = new Date();
         }
     }
 
-    private enum Status {
+    public enum Status {
         UPLOADING, PROCESSING, ERROR, DONE;
     }
 
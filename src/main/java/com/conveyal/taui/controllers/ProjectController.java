@@ -1,5 +1,6 @@
 package com.conveyal.taui.controllers;
 
+import com.conveyal.taui.models.AbstractTimetable;
 import com.conveyal.taui.models.AddTripPattern;
 import com.conveyal.taui.models.ConvertToFrequency;
 import com.conveyal.taui.models.Modification;
@@ -12,10 +13,12 @@ import spark.Request;
 import spark.Response;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 import static spark.Spark.delete;
 import static spark.Spark.get;
@@ -46,84 +49,77 @@ public class ProjectController {
         return Persistence.projects.updateFromJSONRequest(req, Project.class);
     }
 
-    public static Collection<Modification> modifications (Request req, Response res) {
-        return Persistence.modifications.findPermitted(
+    public static Object modifications (Request req, Response res) throws IOException {
+        return Persistence.modifications.streamPermitted(
                 QueryBuilder.start("projectId").is(req.params("_id")).get(),
-                req.attribute("accessGroup")
+                Modification.DETAIL_FIELDS,
+                req,
+                res
         );
     }
 
     public static Collection<Modification> importModifications (Request req, Response res) {
         String importId = req.params("_importId");
         String newId = req.params("_id");
-        Collection<Modification> modifications = Persistence.modifications.findPermitted(
+        List<Modification> modifications = new ArrayList<>(Persistence.modifications.findPermitted(
                 QueryBuilder.start("projectId").is(importId).get(),
                 req.attribute("accessGroup")
-        );
+        ));
 
         // This would be a lot easier if we just used the actual `_id`s and dealt with it elsewhere when searching. They
         // should be unique anyways. Hmmmmmmmmmmmm. Tradeoffs.
-        // Need to make two passes to create all the pairs and rematch for phasing
+        // Need to make two passes to create all the pairs and rematch for phasing. All of the new IDs are assigned here
+        // so that the modifications can be inserted in their final form in one bulk insert.
         Map<String, String> modificationIdPairs = new HashMap<>();
         Map<String, String> timetableIdPairs = new HashMap<>();
 
-        return modifications
-                .stream()
-                .map(modification -> {
-                    String oldModificationId = modification._id;
-                    Modification clone = Persistence.modifications.create(modification);
-                    modificationIdPairs.put(oldModificationId, clone._id);
-
-                    // Change the projectId, most important part!
-                    clone.projectId = newId;
-
-                    // Set `name` to include "(import)"
-                    clone.name = clone.name + " (import)";
-
-                    // Set `updatedBy` by manually, `createdBy` stays with the original author
-                    clone.updatedBy = req.attribute("email");
-
-                    // Matched up the phased entries and timetables
-                    if (modification.getType().equals(AddTripPattern.type)) {
-                        ((AddTripPattern) clone).timetables.forEach(tt -> {
-                            String oldTTId = tt._id;
-                            tt._id = new ObjectId().toString();
-                            timetableIdPairs.put(oldTTId, tt._id);
-                        });
-                    } else if (modification.getType().equals(ConvertToFrequency.type)) {
-                        ((ConvertToFrequency) clone).entries.forEach(tt -> {
-                            String oldTTId = tt._id;
-                            tt._id = new ObjectId().toString();
-                            timetableIdPairs.put(oldTTId, tt._id);
-                        });
-                    }
-
-                    return clone;
-                })
-                .collect(Collectors.toList())
-                .stream()
-                .map(modification -> {
-                    if (modification.getType().equals(AddTripPattern.type)) {
-                        ((AddTripPattern) modification).timetables.forEach(tt -> {
-                            String pft = tt.phaseFromTimetable;
-                            if (pft != null && pft.length() > 0) {
-                                String[] pfts = pft.split(":");
-                                tt.phaseFromTimetable = modificationIdPairs.get(pfts[0]) + ":" + timetableIdPairs.get(pfts[1]);
-                            }
-                        });
-                    } else if (modification.getType().equals(ConvertToFrequency.type)) {
-                        ((ConvertToFrequency) modification).entries.forEach(tt -> {
-                            String pft = tt.phaseFromTimetable;
-                            if (pft != null && pft.length() > 0) {
-                                String[] pfts = pft.split(":");
-                                tt.phaseFromTimetable = modificationIdPairs.get(pfts[0]) + ":" + timetableIdPairs.get(pfts[1]);
-                            }
-                        });
-                    }
-
-                    return Persistence.modifications.put(modification);
-                })
-                .collect(Collectors.toList());
+        for (Modification modification : modifications) {
+            String oldModificationId = modification._id;
+            modification._id = new ObjectId().toString();
+            modificationIdPairs.put(oldModificationId, modification._id);
+
+            // Change the projectId, most important part!
+            modification.projectId = newId;
+
+            // Set `name` to include "(import)"
+            modification.name = modification.name + " (import)";
+
+            // Set `updatedBy` by manually, `createdBy` stays with the original author
+            modification.updatedBy = req.attribute("email");
+
+            for (AbstractTimetable tt : getTimetables(modification)) {
+                String oldTTId = tt._id;
+                tt._id = new ObjectId().toString();
+                timetableIdPairs.put(oldTTId, tt._id);
+            }
+        }
+
+        for (Modification modification : modifications) {
+            // Matched up the phased entries and timetables
+            for (AbstractTimetable tt : getTimetables(modification)) {
+                String pft = tt.phaseFromTimetable;
+                if (pft != null && pft.length() > 0) {
+                    String[] pfts = pft.split(":");
+                    tt.phaseFromTimetable = modificationIdPairs.get(pfts[0]) + ":" + timetableIdPairs.get(pfts[1]);
+                }
+            }
+
+            // The IDs have changed, so the R5 form must be compiled again
+            modification.compile();
+        }
+
+        return Persistence.modifications.createAll(modifications);
+    }
+
+    /** The timetables or frequency entries of a modification that can be phased, or an empty list for other types */
+    private static List<? extends AbstractTimetable> getTimetables (Modification modification) {
+        if (modification.getType().equals(AddTripPattern.type)) {
+            return ((AddTripPattern) modification).timetables;
+        } else if (modification.getType().equals(ConvertToFrequency.type)) {
+            return ((ConvertToFrequency) modification).entries;
+        } else {
+            return Collections.emptyList();
+        }
     }
 
     public static Project deleteProject (Request req, Response res) {
@@ -132,7 +128,7 @@ public class ProjectController {
 
     public static void register () {
         get("/api/project/:_id", ProjectController::findById, JsonUtil.objectMapper::writeValueAsString);
-        get("/api/project/:_id/modifications", ProjectController::modifications, JsonUtil.objectMapper::writeValueAsString);
+        get("/api/project/:_id/modifications", ProjectController::modifications);
         post("/api/project/:_id/import/:_importId", ProjectController::importModifications, JsonUtil.objectMapper::writeValueAsString);
         post("/api/project", ProjectController::create, JsonUtil.objectMapper::writeValueAsString);
         options("/api/project", (q, s) -> "");
@@ -40,7 +40,9 @@ public class RegionController {
     }
 
     public static Collection<Region> getAllRegions (Request req, Response res) {
-        return Persistence.regions.findAllForRequest(req);
+        Collection<Region> regions = Persistence.regions.findAllForRequest(req);
+        Region.loadChildren(regions, req.attribute("accessGroup"));
+        return regions;
     }
 
     public static Map<String, List<FileItem>> getFilesFromRequest (Request req) {
@@ -82,7 +84,7 @@ public class RegionController {
                     if (!customOsm) {
                         // Set the region status
                         region.statusCode = Region.StatusCode.DOWNLOADING_OSM;
-                        Persistence.regions.put(region);
+                        Persistence.regionStatusUpdates.update(region);
 
                         // Retrieve and save the OSM for the region bounds at the given _id
                         OSMPersistence.retrieveOSMFromVexForBounds(region.bounds, region._id);
@@ -90,16 +92,16 @@ public class RegionController {
 
                     // Download census data
                     region.statusCode = Region.StatusCode.DOWNLOADING_CENSUS;
-                    Persistence.regions.put(region); // save the status
+                    Persistence.regionStatusUpdates.update(region); // save the status
                     region.opportunityDatasets = SeamlessCensusGridExtractor.retrieveAndExtractCensusDataForBounds(region.bounds, region._id);
                 }
 
                 region.statusCode = Region.StatusCode.DONE;
-                Persistence.regions.put(region);
+                Persistence.regionStatusUpdates.put(region);
             } catch (Exception e) {
                 region.statusCode = Region.StatusCode.ERROR;
                 region.statusMessage = "Error while fetching data. " + e.getMessage();
-                Persistence.regions.put(region);
+                Persistence.regionStatusUpdates.put(region);
 
                 LOG.error("Error while fetching OSM. " + e.getMessage());
                 e.printStackTrace();
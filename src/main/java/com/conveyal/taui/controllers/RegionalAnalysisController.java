@@ -23,7 +23,10 @@ import spark.Request;
 import spark.Response;
 
 import java.io.IOException;
-import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static spark.Spark.delete;
 import static spark.Spark.get;
@@ -37,16 +40,44 @@ public class RegionalAnalysisController {
     private static AmazonS3 s3 = new AmazonS3Client();
     private static String BUCKET = AnalysisServerConfig.resultsBucket;
 
-    public static Collection<RegionalAnalysis> getRegionalAnalysis (Request req, Response res) {
-        return Persistence.regionalAnalyses.findPermitted(
+    public static Object getRegionalAnalysis (Request req, Response res) throws IOException {
+        return Persistence.regionalAnalyses.streamPermitted(
                 QueryBuilder.start().and(
                         QueryBuilder.start("regionId").is(req.params("regionId")).get(),
                         QueryBuilder.start("deleted").is(false).get()
                 ).get(),
-                req.attribute("accessGroup")
+                RegionalAnalysis.DETAIL_FIELDS,
+                req,
+                res
         );
     }
 
+    /**
+     * Get the status of several regional analyses in one call, so the UI can poll all running jobs cheaply.
+     * Job IDs are passed as a comma separated list in the jobIds query parameter; jobs that are not running on this
+     * server, or are not in the user's access group, are omitted from the response.
+     */
+    public static Map<String, RegionalAnalysisManager.RegionalAnalysisStatus> getStatuses (Request req, Response res) {
+        String jobIds = req.queryParams("jobIds");
+        Map<String, RegionalAnalysisManager.RegionalAnalysisStatus> statuses = new HashMap<>();
+        if (jobIds == null || jobIds.isEmpty()) return statuses;
+
+        for (String jobId : jobIds.split(",")) {
+            RegionalAnalysisManager.RegionalAnalysisStatus status = RegionalAnalysisManager.getStatus(jobId);
+            if (status != null) statuses.put(jobId, status);
+        }
+        if (statuses.isEmpty()) return statuses;
+
+        // Check access to all the running jobs with one query, fetching only their IDs.
+        Set<String> permittedJobIds = Persistence.regionalAnalyses.findPermitted(
+                QueryBuilder.start("_id").in(statuses.keySet()).get(),
+                req.attribute("accessGroup"),
+                "_id"
+        ).stream().map(analysis -> analysis._id).collect(Collectors.toSet());
+        statuses.keySet().retainAll(permittedJobIds);
+        return statuses;
+    }
+
     public static RegionalAnalysis deleteRegionalAnalysis (Request req, Response res) {
         String accessGroup = req.attribute("accessGroup");
         String email = req.attribute("email");
@@ -196,7 +227,8 @@ public class RegionalAnalysisController {
     }
 
     public static void register () {
-        get("/api/region/:regionId/regional", RegionalAnalysisController::getRegionalAnalysis, JsonUtil.objectMapper::writeValueAsString);
+        get("/api/region/:regionId/regional", RegionalAnalysisController::getRegionalAnalysis);
+        get("/api/regional/status", RegionalAnalysisController::getStatuses, JsonUtil.objectMapper::writeValueAsString);
         get("/api/regional/:_id/grid/:format", RegionalAnalysisController::getPercentile, JsonUtil.objectMapper::writeValueAsString);
         get("/api/regional/:_id/samplingDistribution/:lat/:lon", RegionalAnalysisController::getSamplingDistribution, JsonUtil.objectMapper::writeValueAsString);
         get("/api/regional/:_id/:comparisonId/:format", RegionalAnalysisController::getProbabilitySurface, JsonUtil.objectMapper::writeValueAsString);
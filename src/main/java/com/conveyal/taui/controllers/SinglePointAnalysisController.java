@@ -1,15 +1,30 @@
 package com.conveyal.taui.controllers;
 
 import com.conveyal.r5.analyst.cluster.TravelTimeSurfaceTask;
+import com.conveyal.r5.analyst.scenario.Scenario;
 import com.conveyal.r5.common.JsonUtilities;
 import com.conveyal.taui.AnalysisServerConfig;
+import com.conveyal.taui.AnalysisServerException;
+import com.conveyal.taui.analysis.SinglePointCache;
+import com.conveyal.taui.analysis.SpeculativePrefetcher;
+import com.conveyal.taui.grids.Isochrones;
+import com.conveyal.taui.grids.TravelTimeSurface;
 import com.conveyal.taui.models.AnalysisRequest;
+import com.conveyal.taui.models.MultiOriginAnalysisRequest;
 import com.conveyal.taui.models.Project;
+import com.conveyal.taui.models.SpeculativeAnalysisRequest;
 import com.conveyal.taui.persistence.Persistence;
 import com.conveyal.taui.util.HttpUtil;
+import com.conveyal.taui.util.JsonUtil;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.RawValue;
 import com.google.common.io.ByteStreams;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.util.EntityUtils;
@@ -18,11 +33,33 @@ import org.slf4j.LoggerFactory;
 import spark.Request;
 import spark.Response;
 
-import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
+import static spark.Spark.get;
 import static spark.Spark.post;
 
 /**
@@ -32,7 +69,56 @@ public class SinglePointAnalysisController {
     private static final Logger LOG = LoggerFactory.getLogger(SinglePointAnalysisController.class);
     private static final String BROKER_ENQUEUE_SINGLE_URL = AnalysisServerConfig.brokerUrl + "/enqueue/single";
 
-    public static byte[] analysis (Request req, Response res) throws IOException {
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Limits the number of single point requests waiting on the broker at once. Each one holds an HTTP server thread
+     * until the worker responds, which can take a long time while a worker is building a network, so without a limit
+     * a burst of map clicks during a cold start can take every server thread and stall all other API requests.
+     */
+    private static final Semaphore brokerRequestPermits = new Semaphore(AnalysisServerConfig.maxSinglePointRequests);
+
+    /** How long to wait for an identical request that is already in flight; matches the HTTP client socket timeout */
+    private static final int BROKER_TIMEOUT_SECONDS = 60;
+
+    /** Results of the tasks currently being computed, so that identical requests can share one broker call */
+    private static final Map<SinglePointCache.Key, CompletableFuture<SinglePointCache.CachedSurface>> inFlight =
+            new ConcurrentHashMap<>();
+
+    /** Limits on multi-origin requests, see multiOriginAnalysis */
+    private static final int MAX_ORIGINS_PER_REQUEST = 200;
+    private static final int MAX_ORIGINS_IN_FLIGHT = 8;
+
+    /** How long to wait for any one origin of a multi-origin request before giving up on the rest */
+    private static final int ORIGIN_TIMEOUT_SECONDS = 2 * BROKER_TIMEOUT_SECONDS;
+
+    /**
+     * Limits the number of multi-origin requests running at once. Each one holds an HTTP server thread while its
+     * surfaces are streamed, and together they can keep at most maxSinglePointRequests origins in flight.
+     */
+    private static final Semaphore multiOriginRequestPermits =
+            new Semaphore(Math.max(1, AnalysisServerConfig.maxSinglePointRequests / MAX_ORIGINS_IN_FLIGHT));
+
+    /**
+     * Threads making broker requests for multi-origin requests; the request threads only write results out. The
+     * queue is bounded so that origins are refused rather than piling up when the pool cannot keep up.
+     */
+    private static final ExecutorService multiOriginExecutor = new ThreadPoolExecutor(
+            AnalysisServerConfig.maxSinglePointRequests, AnalysisServerConfig.maxSinglePointRequests,
+            0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(AnalysisServerConfig.maxSinglePointRequests), r -> {
+                Thread thread = new Thread(r, "multi-origin");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /** Travel time surfaces already computed by the workers */
+    private static final SinglePointCache cache = new SinglePointCache(AnalysisServerConfig.singlePointCacheBytes);
+
+    /** Computes surfaces for likely origins while the user drags the origin marker */
+    private static final SpeculativePrefetcher prefetcher = new SpeculativePrefetcher(BROKER_ENQUEUE_SINGLE_URL, cache,
+            brokerRequestPermits, AnalysisServerConfig.maxSinglePointRequests);
+
+    public static Object analysis (Request req, Response res) throws IOException {
         // we already know the user is authenticated, and we need not check if they have access to the graphs etc,
         // as they're all coded with UUIDs which contain significantly more entropy than any human's account password.
         final String accessGroup = req.attribute("accessGroup");
@@ -41,6 +127,14 @@ public class SinglePointAnalysisController {
         AnalysisRequest analysisRequest = JsonUtilities.objectMapper.readValue(req.body(), AnalysisRequest.class);
         Project project = Persistence.projects.findByIdIfPermitted(analysisRequest.projectId, accessGroup);
         TravelTimeSurfaceTask task = (TravelTimeSurfaceTask) analysisRequest.populateTask(new TravelTimeSurfaceTask(), project);
+        cache.updateScenario(analysisRequest.projectId, analysisRequest.variantIndex, task.scenarioId);
+
+        // Clients that send speculative requests while dragging snap the origin on drop so the results can be found.
+        boolean speculative = "true".equals(req.queryParams("speculative"));
+        if (speculative) SpeculativePrefetcher.snapToPixelCenter(task);
+
+        String isochroneCutoffs = req.queryParams("isochrones");
+        if (isochroneCutoffs != null) return isochrones(req, res, task, isochroneCutoffs);
 
         if (req.headers("Accept").equals("image/tiff")) {
             task.setFormat(TravelTimeSurfaceTask.Format.GEOTIFF);
@@ -48,7 +142,101 @@ public class SinglePointAnalysisController {
             task.setFormat(TravelTimeSurfaceTask.Format.GRID);
         }
 
-        LOG.info("Single point request by {} made {}", email, BROKER_ENQUEUE_SINGLE_URL);
+        String acceptEncoding = req.headers("Accept-Encoding");
+        SinglePointCache.Key cacheKey = cache.getKey(task, acceptEncoding);
+        SinglePointCache.CachedSurface cached = cache.get(cacheKey);
+        // A surface fetched without compression (e.g. by a speculative task) can be sent whatever the client accepts.
+        SinglePointCache.Key uncompressedKey = acceptEncoding == null ? cacheKey : cache.getKey(task, null);
+        if (cached == null) cached = cache.get(uncompressedKey);
+        if (cached != null) {
+            LOG.info("Single point request by {} served from cache", email);
+            return writeSurface(res, cached);
+        }
+
+        if (speculative) {
+            // The marker has been dropped, so only a speculative task for this origin is still useful.
+            prefetcher.cancelAllExcept(email, uncompressedKey);
+            CompletableFuture<SinglePointCache.CachedSurface> speculativeResult = prefetcher.getInFlight(uncompressedKey);
+            if (speculativeResult != null) {
+                SinglePointCache.CachedSurface shared = waitForSharedResult(speculativeResult);
+                if (shared != null) {
+                    LOG.info("Single point request by {} served by a speculative task", email);
+                    return writeSurface(res, shared);
+                }
+            }
+        }
+
+        // If an identical task is already on its way to the broker, wait for its result instead of sending another.
+        // Only the request that actually calls the broker takes a permit, so identical requests do not use them up.
+        CompletableFuture<SinglePointCache.CachedSurface> leaderResult = new CompletableFuture<>();
+        CompletableFuture<SinglePointCache.CachedSurface> inFlightResult = inFlight.putIfAbsent(cacheKey, leaderResult);
+        if (inFlightResult != null) {
+            SinglePointCache.CachedSurface shared = waitForSharedResult(inFlightResult);
+            if (shared != null) {
+                LOG.info("Single point request by {} coalesced with an identical request in flight", email);
+                return writeSurface(res, shared);
+            }
+            // The other request failed or its result could not be shared, make our own.
+            acquireBrokerRequestPermit(res);
+            try {
+                return requestFromBroker(req, res, task, acceptEncoding, cacheKey, null);
+            } finally {
+                brokerRequestPermits.release();
+            }
+        }
+
+        try {
+            // An identical request may have finished between our cache lookup and registering this one.
+            cached = cache.get(cacheKey);
+            if (cached != null) return writeSurface(res, cached);
+
+            acquireBrokerRequestPermit(res);
+            try {
+                return requestFromBroker(req, res, task, acceptEncoding, cacheKey, leaderResult);
+            } finally {
+                brokerRequestPermits.release();
+            }
+        } finally {
+            inFlight.remove(cacheKey, leaderResult);
+            // Release any waiters if we did not get a shareable result.
+            leaderResult.complete(null);
+        }
+    }
+
+    /** Fail fast rather than queueing up behind requests that are already waiting on the broker. */
+    private static void acquireBrokerRequestPermit (Response res) {
+        if (!brokerRequestPermits.tryAcquire()) {
+            res.header("Retry-After", "1");
+            throw AnalysisServerException.ServiceUnavailable("Too many analysis requests are in progress, please try again.");
+        }
+    }
+
+    private static SinglePointCache.CachedSurface waitForSharedResult (CompletableFuture<SinglePointCache.CachedSurface> result) {
+        try {
+            return result.get(BROKER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /** Write a complete travel time surface held in memory to the client. */
+    private static Object writeSurface (Response res, SinglePointCache.CachedSurface surface) throws IOException {
+        res.type(surface.contentType);
+        if (surface.contentEncoding != null) res.header("Content-Encoding", surface.contentEncoding);
+        res.header("Content-Length", Integer.toString(surface.body.length));
+        res.raw().getOutputStream().write(surface.body);
+        res.raw().flushBuffer();
+        return "";
+    }
+
+    /**
+     * Send a task to the broker and stream the resulting surface to the client.
+     * @param result if not null, completed with the surface so that it can be shared with identical requests
+     */
+    private static Object requestFromBroker (Request req, Response res, TravelTimeSurfaceTask task,
+                                             String acceptEncoding, SinglePointCache.Key cacheKey,
+                                             CompletableFuture<SinglePointCache.CachedSurface> result) throws IOException {
+        LOG.info("Single point request by {} made {}", req.attribute("email"), BROKER_ENQUEUE_SINGLE_URL);
 
         CloseableHttpResponse brokerRes = null;
         HttpPost post = new HttpPost(BROKER_ENQUEUE_SINGLE_URL);
@@ -56,10 +244,15 @@ public class SinglePointAnalysisController {
         // which should be fine since the broker's single point endpoint always expects POST bodies to be JSON.
         // We do need to force the encoding to utf-8 here otherwise multi-byte characters get corrupted.
         post.setEntity(new StringEntity(JsonUtilities.objectMapper.writeValueAsString(task), ContentType.create("application/json", "utf-8")));
+        // Pass the client's accepted encodings on to the broker, so a gzipped surface can be passed straight through.
+        if (acceptEncoding != null) post.setHeader("Accept-Encoding", acceptEncoding);
         try {
-            brokerRes = HttpUtil.httpClient.execute(post);
-            res.status(brokerRes.getStatusLine().getStatusCode());
+            brokerRes = HttpUtil.singlePointHttpClient.execute(post);
+            int status = brokerRes.getStatusLine().getStatusCode();
+            res.status(status);
             res.type(brokerRes.getFirstHeader("Content-Type").getValue());
+            copyHeader(brokerRes, res, "Content-Encoding");
+            copyHeader(brokerRes, res, "Content-Length");
             // FIXME this is a hack for geotiff exports that should be fixed when broker changes are implemented.
             // We expected Content-Type to be image/tiff, but the downloaded files are readable when it is set to
             // application/octet-stream instead.  This may relate to how the UI handles image/tiff files. Chrome seems
@@ -69,20 +262,350 @@ public class SinglePointAnalysisController {
                 res.header("Content-Type","application/octet-stream");
                 res.header("Content-Encoding", "gzip");
             }
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            InputStream is = new BufferedInputStream(brokerRes.getEntity().getContent());
-            long l = ByteStreams.copy(is, baos);
-            is.close();
-            EntityUtils.consume(brokerRes.getEntity());
-
-            LOG.info("Returning {} bytes to the frontend", l);
-            return baos.toByteArray();
+
+            // Stream the surface straight from the broker to the client rather than buffering it in memory, keeping a
+            // copy for the cache if the surface is complete and small enough to be cached.
+            long l = 0;
+            byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+            OutputStream os = res.raw().getOutputStream();
+            ByteArrayOutputStream copy = status == HttpStatus.SC_OK ? new ByteArrayOutputStream() : null;
+            try (InputStream is = brokerRes.getEntity().getContent()) {
+                for (int n; (n = is.read(buffer)) != -1; l += n) {
+                    os.write(buffer, 0, n);
+                    if (copy != null) {
+                        if (l + n > cache.maxEntryBytes) copy = null;
+                        else copy.write(buffer, 0, n);
+                    }
+                }
+            }
+            // Commit the response, so that Spark does not try to write a body of its own.
+            res.raw().flushBuffer();
+
+            if (copy != null) {
+                SinglePointCache.CachedSurface surface = new SinglePointCache.CachedSurface(copy.toByteArray(),
+                        res.raw().getContentType(), res.raw().getHeader("Content-Encoding"));
+                cache.put(cacheKey, surface);
+                if (result != null) result.complete(surface);
+            }
+
+            LOG.info("Returned {} bytes to the frontend", l);
+            return "";
         } finally {
             if (brokerRes != null) brokerRes.close();
         }
     }
 
+    /**
+     * Start computing surfaces for the places the user is likely to drop the origin marker, given its recent
+     * trajectory, so they are ready in the cache when the marker is dropped and the request is made with
+     * ?speculative=true. Each call cancels the user's earlier speculative tasks.
+     */
+    public static Object speculativeAnalysis (Request req, Response res) throws IOException {
+        final String accessGroup = req.attribute("accessGroup");
+        final String email = req.attribute("email");
+
+        SpeculativeAnalysisRequest analysisRequest =
+                JsonUtilities.objectMapper.readValue(req.body(), SpeculativeAnalysisRequest.class);
+        if (analysisRequest.trajectory == null || analysisRequest.trajectory.isEmpty()) {
+            throw AnalysisServerException.BadRequest("A trajectory with at least one point is required.");
+        }
+
+        Project project = Persistence.projects.findByIdIfPermitted(analysisRequest.projectId, accessGroup);
+        TravelTimeSurfaceTask task = (TravelTimeSurfaceTask) analysisRequest.populateTask(new TravelTimeSurfaceTask(), project);
+        task.setFormat(TravelTimeSurfaceTask.Format.GRID);
+        cache.updateScenario(analysisRequest.projectId, analysisRequest.variantIndex, task.scenarioId);
+
+        int started = prefetcher.prefetch(email, task, analysisRequest.trajectory);
+        res.status(HttpStatus.SC_ACCEPTED);
+        return JsonUtil.objectMapper.writeValueAsString(Collections.singletonMap("started", started));
+    }
+
+    /**
+     * Contour the travel time surface into isochrones on the server, so that the client receives a few polygons rather
+     * than the whole surface. The cutoffs in minutes are given as a comma separated list, e.g. ?isochrones=15,30,45.
+     * The optional percentile query parameter is the index of the percentile to contour, defaulting to the middle
+     * one. The result is a GeoJSON FeatureCollection, or if format=polyline an object mapping each cutoff to a list of
+     * polygons, each a list of encoded polylines with the shell first.
+     */
+    private static Object isochrones (Request req, Response res, TravelTimeSurfaceTask task, String cutoffParam)
+            throws IOException {
+        int[] cutoffs;
+        try {
+            cutoffs = Arrays.stream(cutoffParam.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+        } catch (NumberFormatException e) {
+            throw AnalysisServerException.BadRequest("Isochrone cutoffs must be a comma separated list of minutes.");
+        }
+
+        task.setFormat(TravelTimeSurfaceTask.Format.GRID);
+        SinglePointCache.Key cacheKey = cache.getKey(task, null);
+        SinglePointCache.CachedSurface cached = cache.get(cacheKey);
+        byte[] body;
+        if (cached != null) {
+            body = cached.body;
+        } else {
+            acquireBrokerRequestPermit(res);
+            BrokerResponse brokerResponse;
+            try {
+                LOG.info("Isochrone request by {} made {}", req.attribute("email"), BROKER_ENQUEUE_SINGLE_URL);
+                brokerResponse = fetchSurface(JsonUtilities.objectMapper.writeValueAsBytes(task), cacheKey);
+            } finally {
+                brokerRequestPermits.release();
+            }
+            if (brokerResponse.status != HttpStatus.SC_OK) {
+                // Pass errors (and the "network is building" response) through for the client to handle as usual.
+                res.status(brokerResponse.status);
+                if (brokerResponse.contentType != null) res.type(brokerResponse.contentType);
+                return new String(brokerResponse.body, StandardCharsets.UTF_8);
+            }
+            body = brokerResponse.body;
+        }
+
+        TravelTimeSurface surface = TravelTimeSurface.read(new ByteArrayInputStream(body));
+        int percentile = surface.nPercentiles / 2;
+        String percentileParam = req.queryParams("percentile");
+        if (percentileParam != null) {
+            try {
+                percentile = Integer.parseInt(percentileParam);
+            } catch (NumberFormatException e) {
+                throw AnalysisServerException.BadRequest("Percentile must be an integer.");
+            }
+            if (percentile < 0 || percentile >= surface.nPercentiles) {
+                throw AnalysisServerException.BadRequest(String.format("Percentile must be between 0 and %d.", surface.nPercentiles - 1));
+            }
+        }
+
+        Isochrones isochrones = new Isochrones(surface, percentile);
+        res.type("application/json");
+        if ("polyline".equals(req.queryParams("format"))) {
+            return JsonUtil.objectMapper.writeValueAsString(isochrones.toEncodedPolylines(cutoffs));
+        } else {
+            return JsonUtil.objectMapper.writeValueAsString(isochrones.toGeoJson(cutoffs));
+        }
+    }
+
+    /**
+     * Compute travel time surfaces from many origins in one request. The project's scenario is looked up and
+     * serialized only once, the origins are sent to the broker concurrently, and each surface is streamed back as soon
+     * as it is ready. Each surface is written as a frame of:
+     *
+     * - the index of its origin in the request, a big-endian 4-byte integer
+     * - the HTTP status returned by the broker, a big-endian 4-byte integer
+     * - the content type of the body, as a big-endian 2-byte length followed by that many bytes of UTF-8 (the format
+     *   of DataOutputStream.writeUTF), e.g. application/octet-stream for a grid or text/plain for an error message
+     * - the length of the body, a big-endian 4-byte integer
+     * - the body, which is never compressed: surfaces the broker or the cache hold gzipped are decompressed first
+     *
+     * Each origin sent to the broker takes a permit like a single point request. Origins that cannot get one, or that
+     * are refused by the thread pool, get a 503 status for the client to retry; if no origin completes within
+     * ORIGIN_TIMEOUT_SECONDS, all the remaining origins get a 504 status.
+     */
+    public static Object multiOriginAnalysis (Request req, Response res) throws IOException {
+        final String accessGroup = req.attribute("accessGroup");
+        final String email = req.attribute("email");
+
+        MultiOriginAnalysisRequest analysisRequest =
+                JsonUtilities.objectMapper.readValue(req.body(), MultiOriginAnalysisRequest.class);
+        List<MultiOriginAnalysisRequest.Origin> origins = analysisRequest.origins;
+        if (origins == null || origins.isEmpty()) {
+            throw AnalysisServerException.BadRequest("At least one origin is required.");
+        } else if (origins.size() > MAX_ORIGINS_PER_REQUEST) {
+            throw AnalysisServerException.BadRequest(String.format("At most %d origins may be requested at once.", MAX_ORIGINS_PER_REQUEST));
+        }
+
+        Project project = Persistence.projects.findByIdIfPermitted(analysisRequest.projectId, accessGroup);
+        TravelTimeSurfaceTask task = (TravelTimeSurfaceTask) analysisRequest.populateTask(new TravelTimeSurfaceTask(), project);
+        task.setFormat(TravelTimeSurfaceTask.Format.GRID);
+        cache.updateScenario(analysisRequest.projectId, analysisRequest.variantIndex, task.scenarioId);
+
+        // Serialize the scenario once, and splice it into the JSON sent to the broker for each origin.
+        Scenario scenario = task.scenario;
+        task.scenario = null;
+        ObjectNode template = JsonUtilities.objectMapper.valueToTree(task);
+        task.scenario = scenario;
+        RawValue scenarioJson = new RawValue(JsonUtilities.objectMapper.writeValueAsString(scenario));
+
+        if (!multiOriginRequestPermits.tryAcquire()) {
+            res.header("Retry-After", "1");
+            throw AnalysisServerException.ServiceUnavailable("Too many multi-origin requests are in progress, please try again.");
+        }
+
+        LOG.info("Multi-origin request by {} for {} origins", email, origins.size());
+
+        // Origins submitted to the pool and not yet written out, by their index in the request
+        Map<Future<OriginSurface>, Integer> pending = new HashMap<>();
+        try {
+            res.status(HttpStatus.SC_OK);
+            res.type("application/octet-stream");
+            DataOutputStream out = new DataOutputStream(res.raw().getOutputStream());
+
+            CompletionService<OriginSurface> completionService = new ExecutorCompletionService<>(multiOriginExecutor);
+            int submitted = 0;
+            while (submitted < origins.size() || !pending.isEmpty()) {
+                // Keep a bounded number of origins in flight for this request.
+                while (submitted < origins.size() && pending.size() < MAX_ORIGINS_IN_FLIGHT) {
+                    final int index = submitted++;
+                    final MultiOriginAnalysisRequest.Origin origin = origins.get(index);
+                    try {
+                        pending.put(completionService.submit(() -> computeOrigin(index, origin, task, template, scenarioJson)), index);
+                    } catch (RejectedExecutionException e) {
+                        writeOrigin(out, OriginSurface.error(index, HttpStatus.SC_SERVICE_UNAVAILABLE, "Too many origins are in progress."));
+                    }
+                }
+                if (pending.isEmpty()) continue;
+
+                Future<OriginSurface> completed;
+                try {
+                    completed = completionService.poll(ORIGIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw AnalysisServerException.Unknown(e);
+                }
+                if (completed == null) {
+                    LOG.error("Multi-origin request by {} timed out with {} origins outstanding", email,
+                            pending.size() + origins.size() - submitted);
+                    for (int index : pending.values()) {
+                        writeOrigin(out, OriginSurface.error(index, HttpStatus.SC_GATEWAY_TIMEOUT, "Timed out."));
+                    }
+                    while (submitted < origins.size()) {
+                        writeOrigin(out, OriginSurface.error(submitted++, HttpStatus.SC_GATEWAY_TIMEOUT, "Timed out."));
+                    }
+                    break;
+                }
+                pending.remove(completed);
+                try {
+                    writeOrigin(out, completed.get());
+                } catch (InterruptedException | ExecutionException e) {
+                    throw AnalysisServerException.Unknown(e);
+                }
+            }
+
+            res.raw().flushBuffer();
+            return "";
+        } finally {
+            // Stop computing origins nobody will receive, e.g. if the client has gone away.
+            pending.keySet().forEach(future -> future.cancel(true));
+            multiOriginRequestPermits.release();
+        }
+    }
+
+    private static void writeOrigin (DataOutputStream out, OriginSurface surface) throws IOException {
+        out.writeInt(surface.index);
+        out.writeInt(surface.status);
+        out.writeUTF(surface.contentType == null ? "application/octet-stream" : surface.contentType);
+        out.writeInt(surface.body.length);
+        out.write(surface.body);
+        out.flush();
+    }
+
+    /** Get the travel time surface for a single origin of a multi-origin request, from the cache or the broker. */
+    private static OriginSurface computeOrigin (int index, MultiOriginAnalysisRequest.Origin origin,
+                                                TravelTimeSurfaceTask task, ObjectNode template, RawValue scenarioJson) {
+        TravelTimeSurfaceTask originTask = (TravelTimeSurfaceTask) task.clone();
+        originTask.fromLat = origin.lat;
+        originTask.fromLon = origin.lon;
+        SinglePointCache.Key cacheKey = cache.getKey(originTask, null);
+        SinglePointCache.CachedSurface cached = cache.get(cacheKey);
+        if (cached != null) {
+            try {
+                return new OriginSurface(index, HttpStatus.SC_OK, cached.contentType, decode(cached.body, cached.contentEncoding));
+            } catch (IOException e) {
+                LOG.error("Error decompressing cached surface for origin {} of multi-origin request", index, e);
+            }
+        }
+
+        ObjectNode json = template.deepCopy();
+        json.put("fromLat", origin.lat);
+        json.put("fromLon", origin.lon);
+        json.putRawValue("scenario", scenarioJson);
+
+        if (!brokerRequestPermits.tryAcquire()) {
+            return OriginSurface.error(index, HttpStatus.SC_SERVICE_UNAVAILABLE, "Too many analysis requests are in progress.");
+        }
+        try {
+            BrokerResponse brokerResponse = fetchSurface(JsonUtilities.objectMapper.writeValueAsBytes(json), cacheKey);
+            return new OriginSurface(index, brokerResponse.status, brokerResponse.contentType,
+                    decode(brokerResponse.body, brokerResponse.contentEncoding));
+        } catch (Exception e) {
+            LOG.error("Error computing surface for origin {} of multi-origin request", index, e);
+            return OriginSurface.error(index, HttpStatus.SC_INTERNAL_SERVER_ERROR, e.getMessage() == null ? e.toString() : e.getMessage());
+        } finally {
+            brokerRequestPermits.release();
+        }
+    }
+
+    /** Send a task to the broker and read the whole response into memory, caching the surface if it was computed. */
+    private static BrokerResponse fetchSurface (byte[] taskJson, SinglePointCache.Key cacheKey) throws IOException {
+        HttpPost post = new HttpPost(BROKER_ENQUEUE_SINGLE_URL);
+        post.setEntity(new ByteArrayEntity(taskJson, ContentType.APPLICATION_JSON));
+        try (CloseableHttpResponse brokerRes = HttpUtil.singlePointHttpClient.execute(post)) {
+            int status = brokerRes.getStatusLine().getStatusCode();
+            byte[] body = EntityUtils.toByteArray(brokerRes.getEntity());
+            Header contentType = brokerRes.getFirstHeader("Content-Type");
+            Header contentEncoding = brokerRes.getFirstHeader("Content-Encoding");
+            BrokerResponse response = new BrokerResponse(status, body, contentType == null ? null : contentType.getValue(),
+                    contentEncoding == null ? null : contentEncoding.getValue());
+            if (status == HttpStatus.SC_OK) {
+                cache.put(cacheKey, new SinglePointCache.CachedSurface(body, response.contentType, response.contentEncoding));
+            }
+            return response;
+        }
+    }
+
+    /** Decompress a body with the given Content-Encoding, which is either gzip or none. */
+    private static byte[] decode (byte[] body, String contentEncoding) throws IOException {
+        if (!"gzip".equalsIgnoreCase(contentEncoding)) return body;
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+    /** A complete response from the broker */
+    private static class BrokerResponse {
+        final int status;
+        final byte[] body;
+        final String contentType;
+        final String contentEncoding;
+
+        BrokerResponse (int status, byte[] body, String contentType, String contentEncoding) {
+            this.status = status;
+            this.body = body;
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+        }
+    }
+
+    /** The broker's response for one origin of a multi-origin request */
+    private static class OriginSurface {
+        final int index;
+        final int status;
+        final String contentType;
+        final byte[] body;
+
+        OriginSurface (int index, int status, String contentType, byte[] body) {
+            this.index = index;
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        static OriginSurface error (int index, int status, String message) {
+            return new OriginSurface(index, status, "text/plain; charset=utf-8", message.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    public static SinglePointCache.CacheStatus getCacheStatus (Request req, Response res) {
+        return cache.getStatus();
+    }
+
+    /** Copy a header from the broker response to our response, if the broker sent it. */
+    private static void copyHeader (HttpResponse from, Response to, String name) {
+        Header header = from.getFirstHeader(name);
+        if (header != null) to.header(name, header.getValue());
+    }
+
     public static void register () {
         post("/api/analysis", SinglePointAnalysisController::analysis);
+        post("/api/analysis/speculative", SinglePointAnalysisController::speculativeAnalysis);
+        post("/api/analysis/multi-origin", SinglePointAnalysisController::multiOriginAnalysis);
+        get("/api/analysis/cache", SinglePointAnalysisController::getCacheStatus, JsonUtil.objectMapper::writeValueAsString);
     }
 }
@@ -0,0 +1,296 @@
+package com.conveyal.taui.grids;
+
+import com.conveyal.taui.util.EncodedPolyline;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.vividsolutions.jts.algorithm.CGAlgorithms;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Contours a travel time surface into isochrone polygons using marching squares, so that clients can be sent a few
+ * polygons rather than the whole surface.
+ *
+ * Travel times are sampled at pixel centers, and the surface is padded with a border of unreachable samples so that
+ * every contour closes. Each crossing of a contour over the line between two neighboring samples is identified by that
+ * line (an "edge" of the marching squares cells), which gives exactly two neighboring crossings per crossing and lets
+ * us chain the segments into rings without comparing coordinates. Rings never cross, so whether a ring is the outside
+ * of a polygon or a hole follows from how many other rings contain it.
+ */
+public class Isochrones {
+    /** Travel times at or above this many minutes are treated as unreachable */
+    private static final int UNREACHED = 24 * 60;
+
+    /** Keep contour crossings slightly away from the samples so that distinct rings never share a vertex */
+    private static final double MIN_FRACTION = 0.01;
+
+    /** Coordinates are rounded to this many decimal places, about one meter */
+    private static final double COORDINATE_SCALE = 1e5;
+
+    private final TravelTimeSurface surface;
+    private final int percentile;
+
+    /** Number of samples across and down, including the padding on each side */
+    private final int paddedWidth;
+    private final int paddedHeight;
+
+    public Isochrones (TravelTimeSurface surface, int percentile) {
+        this.surface = surface;
+        this.percentile = percentile;
+        this.paddedWidth = surface.width + 2;
+        this.paddedHeight = surface.height + 2;
+    }
+
+    /** @return the travel time at a padded sample position, UNREACHED for the padding */
+    private int time (int i, int j) {
+        int x = i - 1;
+        int y = j - 1;
+        if (x < 0 || y < 0 || x >= surface.width || y >= surface.height) return UNREACHED;
+        return Math.min(surface.get(percentile, x, y), UNREACHED);
+    }
+
+    /**
+     * Edges are the lines between neighboring samples. Horizontal edges run from sample (i, j) to (i + 1, j) and
+     * vertical edges from (i, j) to (i, j + 1).
+     */
+    private long horizontalEdge (int i, int j) {
+        return ((long) j * paddedWidth + i) * 2;
+    }
+
+    private long verticalEdge (int i, int j) {
+        return ((long) j * paddedWidth + i) * 2 + 1;
+    }
+
+    /**
+     * Compute the rings of the contour at the given cutoff, in padded sample coordinates, grouped into polygons. The
+     * first ring of each polygon is its shell and any others are its holes.
+     */
+    public List<List<Coordinate[]>> getPolygons (int cutoffMinutes) {
+        TLongObjectMap<long[]> neighbors = new TLongObjectHashMap<>();
+
+        for (int j = 0; j < paddedHeight - 1; j++) {
+            for (int i = 0; i < paddedWidth - 1; i++) {
+                boolean a = time(i, j) < cutoffMinutes;         // top left
+                boolean b = time(i + 1, j) < cutoffMinutes;     // top right
+                boolean c = time(i + 1, j + 1) < cutoffMinutes; // bottom right
+                boolean d = time(i, j + 1) < cutoffMinutes;     // bottom left
+
+                long top = horizontalEdge(i, j);
+                long right = verticalEdge(i + 1, j);
+                long bottom = horizontalEdge(i, j + 1);
+                long left = verticalEdge(i, j);
+
+                if (a == c && b == d && a != b) {
+                    // Saddle: decide from the average of the corners whether the middle of the cell is inside, and
+                    // cut off the two corners that are on the other side from the middle.
+                    int sum = time(i, j) + time(i + 1, j) + time(i + 1, j + 1) + time(i, j + 1);
+                    boolean middle = sum < cutoffMinutes * 4;
+                    if (a != middle) {
+                        connect(neighbors, top, left);
+                        connect(neighbors, right, bottom);
+                    } else {
+                        connect(neighbors, top, right);
+                        connect(neighbors, left, bottom);
+                    }
+                } else {
+                    // At most one segment: connect the two edges whose ends differ, if any.
+                    long from = -1;
+                    if (a != b) from = top;
+                    if (b != c) from = connectOrStart(neighbors, from, right);
+                    if (c != d) from = connectOrStart(neighbors, from, bottom);
+                    if (d != a) connectOrStart(neighbors, from, left);
+                }
+            }
+        }
+
+        List<Coordinate[]> rings = traceRings(neighbors, cutoffMinutes);
+        return groupIntoPolygons(rings);
+    }
+
+    private static long connectOrStart (TLongObjectMap<long[]> neighbors, long from, long edge) {
+        if (from < 0) return edge;
+        connect(neighbors, from, edge);
+        return -1;
+    }
+
+    private static void connect (TLongObjectMap<long[]> neighbors, long e0, long e1) {
+        addNeighbor(neighbors, e0, e1);
+        addNeighbor(neighbors, e1, e0);
+    }
+
+    private static void addNeighbor (TLongObjectMap<long[]> neighbors, long edge, long neighbor) {
+        long[] existing = neighbors.get(edge);
+        if (existing == null) neighbors.put(edge, new long[] { neighbor, -1 });
+        else existing[1] = neighbor;
+    }
+
+    /** Follow the links between crossings around each ring. */
+    private List<Coordinate[]> traceRings (TLongObjectMap<long[]> neighbors, int cutoffMinutes) {
+        List<Coordinate[]> rings = new ArrayList<>();
+        for (long start : neighbors.keys()) {
+            // Skip crossings already traced as part of an earlier ring
+            if (!neighbors.containsKey(start)) continue;
+            List<Coordinate> ring = new ArrayList<>();
+            long previous = -1;
+            long current = start;
+            do {
+                ring.add(crossing(current, cutoffMinutes));
+                long[] next = neighbors.remove(current);
+                long following = next[0] != previous ? next[0] : next[1];
+                previous = current;
+                current = following;
+            } while (current != start && neighbors.containsKey(current));
+            ring.add(ring.get(0));
+            if (ring.size() >= 4) rings.add(ring.toArray(new Coordinate[ring.size()]));
+        }
+        return rings;
+    }
+
+    /** @return the position where the contour crosses the given edge, interpolating between the two samples */
+    private Coordinate crossing (long edge, int cutoffMinutes) {
+        long sample = edge / 2;
+        int i0 = (int) (sample % paddedWidth);
+        int j0 = (int) (sample / paddedWidth);
+        int i1 = edge % 2 == 0 ? i0 + 1 : i0;
+        int j1 = edge % 2 == 0 ? j0 : j0 + 1;
+
+        int t0 = time(i0, j0);
+        int t1 = time(i1, j1);
+        double fraction = t0 == UNREACHED || t1 == UNREACHED ? 0.5 : (cutoffMinutes - t0) / (double) (t1 - t0);
+        fraction = Math.max(MIN_FRACTION, Math.min(1 - MIN_FRACTION, fraction));
+        return new Coordinate(i0 + (i1 - i0) * fraction, j0 + (j1 - j0) * fraction);
+    }
+
+    /**
+     * Rings inside an even number of other rings are shells; each hole belongs to the innermost shell around it.
+     * Containment is only tested against rings whose bounding box contains the vertex, which rules out most pairs.
+     */
+    private static List<List<Coordinate[]>> groupIntoPolygons (List<Coordinate[]> rings) {
+        Envelope[] envelopes = new Envelope[rings.size()];
+        for (int r = 0; r < rings.size(); r++) {
+            envelopes[r] = new Envelope();
+            for (Coordinate c : rings.get(r)) envelopes[r].expandToInclude(c);
+        }
+
+        int[] depth = new int[rings.size()];
+        int[] parent = new int[rings.size()];
+        for (int r = 0; r < rings.size(); r++) {
+            parent[r] = -1;
+            Coordinate vertex = rings.get(r)[0];
+            for (int other = 0; other < rings.size(); other++) {
+                if (other != r && contains(rings.get(other), envelopes[other], vertex)) depth[r]++;
+            }
+        }
+
+        // The parent of a hole is the containing ring one level out.
+        for (int r = 0; r < rings.size(); r++) {
+            if (depth[r] % 2 == 0) continue;
+            Coordinate vertex = rings.get(r)[0];
+            for (int other = 0; other < rings.size(); other++) {
+                if (depth[other] == depth[r] - 1 && contains(rings.get(other), envelopes[other], vertex)) {
+                    parent[r] = other;
+                    break;
+                }
+            }
+        }
+
+        List<List<Coordinate[]>> polygons = new ArrayList<>();
+        for (int r = 0; r < rings.size(); r++) {
+            if (depth[r] % 2 != 0) continue;
+            List<Coordinate[]> polygon = new ArrayList<>();
+            polygon.add(rings.get(r));
+            for (int hole = 0; hole < rings.size(); hole++) {
+                if (parent[hole] == r) polygon.add(rings.get(hole));
+            }
+            polygons.add(polygon);
+        }
+        return polygons;
+    }
+
+    private static boolean contains (Coordinate[] ring, Envelope envelope, Coordinate vertex) {
+        return envelope.contains(vertex) && CGAlgorithms.isPointInRing(vertex, ring);
+    }
+
+    private double toLon (double i) {
+        // Sample i is at the center of pixel i - 1 because of the padding.
+        double x = surface.west + i - 0.5;
+        return x / (256 * Math.pow(2, surface.zoom)) * 360 - 180;
+    }
+
+    private double toLat (double j) {
+        double y = surface.north + j - 0.5;
+        double n = Math.PI - 2 * Math.PI * y / (256 * Math.pow(2, surface.zoom));
+        return Math.toDegrees(Math.atan(Math.sinh(n)));
+    }
+
+    private static double round (double value) {
+        return Math.round(value * COORDINATE_SCALE) / COORDINATE_SCALE;
+    }
+
+    /**
+     * Convert a ring to longitude and latitude, winding it as GeoJSON requires: shells counterclockwise and holes
+     * clockwise. Rows run southward, so the winding in sample coordinates is the opposite once converted.
+     */
+    private Coordinate[] toLonLat (Coordinate[] ring, boolean shell) {
+        Coordinate[] lonLat = new Coordinate[ring.length];
+        for (int i = 0; i < ring.length; i++) lonLat[i] = new Coordinate(toLon(ring[i].x), toLat(ring[i].y));
+        if (CGAlgorithms.isCCW(lonLat) != shell) Collections.reverse(Arrays.asList(lonLat));
+        return lonLat;
+    }
+
+    /** @return a GeoJSON FeatureCollection with one MultiPolygon feature for each cutoff */
+    public JsonNode toGeoJson (int[] cutoffs) {
+        JsonNodeFactory factory = JsonNodeFactory.instance;
+        ObjectNode featureCollection = factory.objectNode();
+        featureCollection.put("type", "FeatureCollection");
+        ArrayNode features = featureCollection.putArray("features");
+
+        for (int cutoff : cutoffs) {
+            ObjectNode feature = features.addObject();
+            feature.put("type", "Feature");
+            feature.putObject("properties").put("cutoff", cutoff);
+            ObjectNode geometry = feature.putObject("geometry");
+            geometry.put("type", "MultiPolygon");
+            ArrayNode polygons = geometry.putArray("coordinates");
+            for (List<Coordinate[]> polygon : getPolygons(cutoff)) {
+                ArrayNode polygonNode = polygons.addArray();
+                for (int r = 0; r < polygon.size(); r++) {
+                    ArrayNode ringNode = polygonNode.addArray();
+                    for (Coordinate c : toLonLat(polygon.get(r), r == 0)) {
+                        ringNode.addArray().add(round(c.x)).add(round(c.y));
+                    }
+                }
+            }
+        }
+
+        return featureCollection;
+    }
+
+    /**
+     * @return a JSON object with a list of polygons for each cutoff, where each polygon is a list of rings (shell
+     * first) encoded in the Google encoded polyline format with five digits of precision.
+     */
+    public JsonNode toEncodedPolylines (int[] cutoffs) {
+        JsonNodeFactory factory = JsonNodeFactory.instance;
+        ObjectNode result = factory.objectNode();
+        for (int cutoff : cutoffs) {
+            ArrayNode polygons = result.putArray(Integer.toString(cutoff));
+            for (List<Coordinate[]> polygon : getPolygons(cutoff)) {
+                ArrayNode polygonNode = polygons.addArray();
+                for (int r = 0; r < polygon.size(); r++) {
+                    polygonNode.add(EncodedPolyline.encode(toLonLat(polygon.get(r), r == 0), COORDINATE_SCALE));
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,74 @@
+package com.conveyal.taui.grids;
+
+import com.google.common.io.LittleEndianDataInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A single point travel time surface as returned by the workers in GRID format: the eight byte "ACCESSGR" header,
+ * seven little-endian ints (version, zoom, west, north, width, height and the number of values per pixel, one for each
+ * requested percentile), then each percentile's travel times in minutes for every pixel, delta coded. Any metadata
+ * following the travel times is ignored.
+ */
+public class TravelTimeSurface {
+    public static final String HEADER = "ACCESSGR";
+
+    public final int zoom;
+    public final int west;
+    public final int north;
+    public final int width;
+    public final int height;
+    public final int nPercentiles;
+
+    /** Travel times in minutes, indexed by percentile, then by pixel in row-major order */
+    public final int[][] times;
+
+    private TravelTimeSurface (int zoom, int west, int north, int width, int height, int nPercentiles) {
+        this.zoom = zoom;
+        this.west = west;
+        this.north = north;
+        this.width = width;
+        this.height = height;
+        this.nPercentiles = nPercentiles;
+        this.times = new int[nPercentiles][width * height];
+    }
+
+    /** Read a surface, which may or may not be gzipped. */
+    public static TravelTimeSurface read (InputStream rawInput) throws IOException {
+        InputStream input = new BufferedInputStream(rawInput);
+        input.mark(2);
+        boolean gzipped = input.read() == 0x1f && input.read() == 0x8b;
+        input.reset();
+        if (gzipped) input = new GZIPInputStream(input);
+
+        LittleEndianDataInputStream data = new LittleEndianDataInputStream(input);
+        byte[] header = new byte[HEADER.length()];
+        data.readFully(header);
+        if (!HEADER.equals(new String(header, StandardCharsets.US_ASCII))) {
+            throw new IOException("Travel time surface does not have the expected header.");
+        }
+
+        int version = data.readInt();
+        if (version != 0) throw new IOException("Unsupported travel time surface version " + version);
+
+        TravelTimeSurface surface = new TravelTimeSurface(data.readInt(), data.readInt(), data.readInt(),
+                data.readInt(), data.readInt(), data.readInt());
+
+        for (int[] percentile : surface.times) {
+            int previous = 0;
+            for (int pixel = 0; pixel < percentile.length; pixel++) {
+                previous = percentile[pixel] = previous + data.readInt();
+            }
+        }
+
+        return surface;
+    }
+
+    public int get (int percentile, int x, int y) {
+        return times[percentile][y * width + x];
+    }
+}
@@ -1,6 +1,7 @@
 package com.conveyal.taui.models;
 
 import com.conveyal.r5.analyst.scenario.AddTrips;
+import com.fasterxml.jackson.annotation.JsonView;
 
 import java.util.List;
 import java.util.stream.Collectors;
@@ -14,10 +15,17 @@ public class AddTripPattern extends Modification {
         return type;
     }
 
+    @JsonView({ JsonViews.Api.class, JsonViews.Db.class })
     public List<Segment> segments;
 
+    @Override
+    public void validate () {
+        if (segments != null) segments.forEach(Segment::validate);
+    }
+
     public boolean bidirectional;
 
+    @JsonView({ JsonViews.Api.class, JsonViews.Db.class })
     public List<Timetable> timetables;
 
     public static class Timetable extends AbstractTimetable {
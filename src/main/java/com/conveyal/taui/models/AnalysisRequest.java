@@ -2,21 +2,16 @@ package com.conveyal.taui.models;
 
 import com.conveyal.r5.analyst.Grid;
 import com.conveyal.r5.analyst.cluster.AnalysisTask;
-import com.conveyal.r5.analyst.scenario.Modification;
 import com.conveyal.r5.analyst.scenario.Scenario;
 import com.conveyal.r5.api.util.LegMode;
 import com.conveyal.r5.api.util.TransitModes;
-import com.conveyal.r5.common.JsonUtilities;
+import com.conveyal.taui.analysis.ScenarioCache;
 import com.conveyal.taui.persistence.Persistence;
-import com.mongodb.QueryBuilder;
 
 import java.time.LocalDate;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
-import java.util.List;
 import java.util.stream.Collectors;
-import java.util.zip.CRC32;
 
 public class AnalysisRequest {
     private static int ZOOM = 9;
@@ -59,43 +54,28 @@ public class AnalysisRequest {
     public String opportunityDatasetKey;
     public Integer travelTimePercentile;
 
-    /**
-     * Get all of the modifications for a project id that are in the Variant and map them to their corresponding r5 mod
-     */
-    private static List<Modification> modificationsForProject (String accessGroup, String projectId, int variantIndex) {
-        return Persistence.modifications
-                .findPermitted(QueryBuilder.start("projectId").is(projectId).get(), accessGroup)
-                .stream()
-                .filter(m -> variantIndex < m.variants.length && m.variants[variantIndex])
-                .map(com.conveyal.taui.models.Modification::toR5)
-                .collect(Collectors.toList());
-    }
+    /** The R5 form of the modifications in each project variant, so that they are only converted when they change */
+    private static final ScenarioCache scenarioCache = new ScenarioCache();
 
     /**
      * Finds the modifications for the specified project and variant, maps them to their corresponding R5 modification
-     * types, creates a checksum from those modifications, and adds them to the AnalysisTask along with the rest of the
-     * request.
+     * types, creates a fingerprint from those modifications, and adds them to the AnalysisTask along with the rest of
+     * the request.
      */
     public AnalysisTask populateTask (AnalysisTask task, Project project) {
-        List<Modification> modifications = new ArrayList<>();
-
         // No modifications in the baseline comparison
-        if (variantIndex > -1) {
-            modifications = modificationsForProject(project.accessGroup, projectId, variantIndex);
-        }
+        ScenarioCache.CompiledScenario compiled = variantIndex > -1
+                ? scenarioCache.get(project.accessGroup, projectId, variantIndex)
+                : ScenarioCache.CompiledScenario.EMPTY;
 
-        // The CRC is appended to the scenario ID to identify a unique revision of the scenario (still denoted here
-        // as variant) allowing the worker to cache and reuse networks built by applying that exact revision of the
+        // The fingerprint is appended to the scenario ID to identify a unique revision of the scenario (still denoted
+        // here as variant) allowing the worker to cache and reuse networks built by applying that exact revision of the
         // scenario to a base network.
-        CRC32 crc = new CRC32();
-        crc.update(JsonUtilities.objectToJsonBytes(modifications));
-        long crcValue = crc.getValue();
-
         task.scenario = new Scenario();
         // TODO figure out why we use both
-        task.jobId = String.format("%s-%s-%s", projectId, variantIndex, crcValue);
+        task.jobId = String.format("%s-%s-%s", projectId, variantIndex, compiled.fingerprint);
         task.scenario.id = task.scenarioId = task.jobId;
-        task.scenario.modifications = modifications;
+        task.scenario.modifications = compiled.modifications;
 
         task.graphId = project.bundleId;
         task.workerVersion = workerVersion;
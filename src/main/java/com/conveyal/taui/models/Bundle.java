@@ -21,6 +21,11 @@ import java.util.stream.Collectors;
  * All of the data is stored in S3, however some information is cached here.
  */
 public class Bundle extends Model implements Cloneable {
+    /** Fields read when listing the bundles of regions, leaving out the summary of each feed */
+    public static final String[] SUMMARY_FIELDS = { "name", "nonce", "accessGroup", "createdAt", "updatedAt",
+            "createdBy", "updatedBy", "regionId", "north", "south", "east", "west", "centerLat", "centerLon",
+            "serviceStart", "serviceEnd", "status", "feedsComplete", "totalFeeds", "errorCode" };
+
     public String regionId;
 
     public double north;
@@ -2,6 +2,7 @@ package com.conveyal.taui.models;
 
 import com.conveyal.r5.analyst.scenario.AddTrips;
 import com.conveyal.r5.analyst.scenario.AdjustFrequency;
+import com.fasterxml.jackson.annotation.JsonView;
 
 import java.util.List;
 import java.util.stream.Collectors;
@@ -22,6 +23,7 @@ public class ConvertToFrequency extends Modification {
     /** Should trips on this route that start outside the days/times specified by frequency entries be retained? */
     public boolean retainTripsOutsideFrequencyEntries = false;
 
+    @JsonView({ JsonViews.Api.class, JsonViews.Db.class })
     public List<FrequencyEntry> entries;
 
     public static class FrequencyEntry extends AbstractTimetable {
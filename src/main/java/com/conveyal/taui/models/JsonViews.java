@@ -4,6 +4,11 @@ package com.conveyal.taui.models;
  * Created by matthewc on 7/20/16.
  */
 public class JsonViews {
-    public static class Api { }
+    /**
+     * Lists of objects, leaving out large fields (annotated with both Api and Db) that lists do not need. Fields with
+     * no view are in every view.
+     */
+    public static class Summary { }
+    public static class Api extends Summary { }
     public static class Db { }
 }
@@ -1,11 +1,20 @@
 package com.conveyal.taui.models;
 
+import com.conveyal.r5.common.JsonUtilities;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.annotation.JsonView;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Created by matthewc on 2/9/16.
@@ -21,6 +30,9 @@ import java.util.stream.Collectors;
         @JsonSubTypes.Type(name = "reroute", value = Reroute.class)
 })
 public abstract class Modification extends Model implements Cloneable {
+    /** Fields of the various modification types left out of summaries */
+    public static final String[] DETAIL_FIELDS = { "segments", "timetables", "entries", "compressedR5" };
+
     /** the type of this modification, see JsonSubTypes annotation above */
     public abstract String getType ();
 
@@ -48,5 +60,51 @@ public abstract class Modification extends Model implements Cloneable {
         return String.format("%s:%s", feed, id);
     }
 
+    /**
+     * Version of the conversion done by toR5. Increment it whenever the R5 form of any modification changes, so that
+     * compiled forms stored by an older version are not used.
+     */
+    public static final int COMPILER_VERSION = 2;
+
+    /**
+     * The gzipped JSON of the R5 form of this modification, stored when it is saved so that analyses do not need to
+     * convert it on every request. Not sent to the client.
+     */
+    @JsonView(JsonViews.Db.class)
+    public byte[] compressedR5;
+
+    /** The COMPILER_VERSION that produced compressedR5 */
+    @JsonView(JsonViews.Db.class)
+    public int compilerVersion;
+
     public abstract com.conveyal.r5.analyst.scenario.Modification toR5 ();
+
+    /** Check this modification before it is saved, throwing a BadRequest if it cannot be stored or converted */
+    public void validate () { }
+
+    /** Validate this modification, convert it to its R5 form and keep the result, to be called before saving it. */
+    public void compile () {
+        validate();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            JsonUtilities.objectMapper.writeValue(out, toR5());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        compressedR5 = bytes.toByteArray();
+        compilerVersion = COMPILER_VERSION;
+    }
+
+    /**
+     * @return the R5 form of this modification, converting it again if it was saved before it was compiled or was
+     * compiled by an older version of toR5
+     */
+    public com.conveyal.r5.analyst.scenario.Modification toCompiledR5 () {
+        if (compressedR5 == null || compilerVersion != COMPILER_VERSION) return toR5();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressedR5))) {
+            return JsonUtilities.objectMapper.readValue(in, com.conveyal.r5.analyst.scenario.Modification.class);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
 }
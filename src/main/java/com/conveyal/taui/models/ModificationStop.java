@@ -1,28 +1,32 @@
 package com.conveyal.taui.models;
 
 import com.conveyal.r5.analyst.scenario.StopSpec;
-import com.conveyal.taui.AnalysisServerException;
 import com.vividsolutions.jts.geom.Coordinate;
-import org.geotools.geometry.jts.JTS;
-import org.geotools.referencing.crs.DefaultGeographicCRS;
-import org.opengis.referencing.crs.CoordinateReferenceSystem;
-import org.opengis.referencing.operation.TransformException;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Stack;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 class ModificationStop {
     private static double MIN_SPACING_PERCENTAGE = 0.25;
     private static int DEFAULT_SEGMENT_SPEED = 15;
 
-    private Coordinate coordinate;
+    /** WGS84 ellipsoid semi-major axis in meters and first eccentricity squared */
+    private static final double SEMI_MAJOR_AXIS = 6378137.0;
+    private static final double ECCENTRICITY_SQUARED = 6.69437999014e-3;
+
+    /** Routes with more coordinates than this have their distances computed in parallel */
+    private static final int MIN_PARALLEL_COORDINATES = 10_000;
+
+    private double lon;
+    private double lat;
     private String id;
     private double distanceFromStart;
 
-    private ModificationStop(Coordinate c, String id, double distanceFromStart) {
-        this.coordinate = c;
+    private ModificationStop(double lon, double lat, String id, double distanceFromStart) {
+        this.lon = lon;
+        this.lat = lat;
         this.id = id;
         this.distanceFromStart = distanceFromStart;
     }
@@ -37,7 +41,7 @@ class ModificationStop {
                 .stream()
                 .map(s -> {
                     if (s.id == null){
-                        return new StopSpec(s.coordinate.x, s.coordinate.y);
+                        return new StopSpec(s.lon, s.lat);
                     } else {
                         return new StopSpec(s.id);
                     }
@@ -45,46 +49,76 @@ class ModificationStop {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Distance in meters between two nearby points on the WGS84 ellipsoid, treating the ellipsoid as flat around their
+     * mid-latitude (using its radii of curvature there). Compared to the exact geodesic distance the error is below
+     * 1 millimeter for points up to 1 km apart, 2 centimeters up to 10 km and 2 meters up to 50 km, far less than the
+     * precision of stop spacing, and it is hundreds of times faster than JTS.orthodromicDistance.
+     */
+    static double distance (double lon0, double lat0, double lon1, double lat1) {
+        double midLat = Math.toRadians((lat0 + lat1) / 2);
+        double sinMidLat = Math.sin(midLat);
+        double w = 1 - ECCENTRICITY_SQUARED * sinMidLat * sinMidLat;
+        double primeVerticalRadius = SEMI_MAJOR_AXIS / Math.sqrt(w);
+        double meridionalRadius = primeVerticalRadius * (1 - ECCENTRICITY_SQUARED) / w;
+        double dy = meridionalRadius * Math.toRadians(lat1 - lat0);
+        double dx = primeVerticalRadius * Math.cos(midLat) * Math.toRadians(lon1 - lon0);
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /** @return the length of each line segment of the geometry of each segment */
+    private static double[][] getLineSegmentDistances (List<Segment> segments) {
+        double[][] distances = new double[segments.size()][];
+        IntStream indexes = IntStream.range(0, segments.size());
+        int nCoordinates = segments.stream().mapToInt(s -> s.geometry.getNumPoints()).sum();
+        if (nCoordinates > MIN_PARALLEL_COORDINATES) indexes = indexes.parallel();
+        indexes.forEach(s -> {
+            Coordinate[] coords = segments.get(s).geometry.getCoordinates();
+            double[] segmentDistances = new double[Math.max(0, coords.length - 1)];
+            for (int i = 1; i < coords.length; i++) {
+                segmentDistances[i - 1] = distance(coords[i - 1].x, coords[i - 1].y, coords[i].x, coords[i].y);
+            }
+            distances[s] = segmentDistances;
+        });
+        return distances;
+    }
+
     /**
      * We don't just use `StopSpec`s here because we need to keep the `distanceFromStart` for generating hop times.
      * @param segments Modification segments
      * @return ModificationStop[]
      */
     static List<ModificationStop> getStopsFromSegments (List<Segment> segments) {
-        Stack<ModificationStop> stops = new Stack<>();
-        CoordinateReferenceSystem crs = DefaultGeographicCRS.WGS84;
+        List<ModificationStop> stops = new ArrayList<>();
 
         if (segments == null || segments.size() == 0) {
-            return new ArrayList<>();
+            return stops;
         }
 
+        double[][] lineSegmentDistances = getLineSegmentDistances(segments);
         Segment firstSegment = segments.get(0);
 
         if (firstSegment.stopAtStart) {
-            stops.add(new ModificationStop(firstSegment.geometry.getCoordinates()[0], firstSegment.fromStopId, 0));
+            Coordinate first = firstSegment.geometry.getCoordinates()[0];
+            stops.add(new ModificationStop(first.x, first.y, firstSegment.fromStopId, 0));
         }
 
         double distanceToLastStop = 0;
         double distanceToLineSegmentStart = 0;
-        for (Segment segment : segments) {
+        for (int s = 0; s < segments.size(); s++) {
+            Segment segment = segments.get(s);
             Coordinate[] coords = segment.geometry.getCoordinates();
             int spacing = segment.spacing;
             for (int i = 1; i < coords.length; i++) {
                 Coordinate c0 = coords[i - 1];
                 Coordinate c1 = coords[i];
-                double distanceThisLineSegment;
-                try {
-                    distanceThisLineSegment = JTS.orthodromicDistance(c0, c1, crs);
-                } catch (TransformException e) {
-                    throw AnalysisServerException.Unknown(e.getMessage());
-                }
+                double distanceThisLineSegment = lineSegmentDistances[s][i - 1];
 
                 if (spacing > 0) {
                     // Auto-created stops
                     while (distanceToLastStop + spacing < distanceToLineSegmentStart + distanceThisLineSegment) {
                         double frac = (distanceToLastStop + spacing - distanceToLineSegmentStart) / distanceThisLineSegment;
                         if (frac < 0) frac = 0;
-                        Coordinate c = new Coordinate(c0.x + (c1.x - c0.x) * frac, c0.y + (c1.y - c0.y) * frac);
 
                         // We can't just add segment.spacing because of converting negative fractions to zero above.
                         // This can happen when the last segment did not have automatic stop creation, or had a larger
@@ -93,7 +127,8 @@ class ModificationStop {
                         distanceToLastStop = distanceToLineSegmentStart + frac * distanceThisLineSegment;
 
                         // Add the auto-created stop without an id
-                        stops.add(new ModificationStop(c, null, distanceToLastStop));
+                        stops.add(new ModificationStop(c0.x + (c1.x - c0.x) * frac, c0.y + (c1.y - c0.y) * frac,
+                                null, distanceToLastStop));
                     }
                 }
 
@@ -101,23 +136,22 @@ class ModificationStop {
             }
 
             if (segment.stopAtEnd) {
-                // If the last auto-generated stop was too close, pop it
+                // If the last auto-generated stop was too close, remove it
                 if (stops.size() > 0) {
-                    ModificationStop lastStop = stops.peek();
+                    ModificationStop lastStop = stops.get(stops.size() - 1);
                     if (lastStop.id == null && (distanceToLineSegmentStart - distanceToLastStop) / spacing < MIN_SPACING_PERCENTAGE) {
-                        stops.pop();
+                        stops.remove(stops.size() - 1);
                     }
                 }
 
                 Coordinate endCoord = coords[coords.length - 1];
-                ModificationStop toStop = new ModificationStop(endCoord, segment.toStopId, distanceToLineSegmentStart);
-                stops.add(toStop);
+                stops.add(new ModificationStop(endCoord.x, endCoord.y, segment.toStopId, distanceToLineSegmentStart));
             }
 
             distanceToLastStop = distanceToLineSegmentStart;
         }
 
-        return new ArrayList<>(stops);
+        return stops;
     }
 
     static int[] getDwellTimes (List<ModificationStop> stops, Integer[] dwellTimes, int defaultDwellTime) {
@@ -0,0 +1,16 @@
+package com.conveyal.taui.models;
+
+import java.util.List;
+
+/**
+ * A single point analysis request that is to be run from several origins, for instance all the stations in a
+ * station-area study. All the other analysis parameters are shared by every origin.
+ */
+public class MultiOriginAnalysisRequest extends AnalysisRequest {
+    public List<Origin> origins;
+
+    public static class Origin {
+        public float lat;
+        public float lon;
+    }
+}
@@ -6,6 +6,10 @@ import com.conveyal.taui.AnalysisServerException;
  * Represents a TAUI project
  */
 public class Project extends Model implements Cloneable {
+    /** Fields read when listing the projects of regions, leaving out the saved analysis settings */
+    public static final String[] SUMMARY_FIELDS = { "name", "nonce", "accessGroup", "createdAt", "updatedAt",
+            "createdBy", "updatedBy", "variants", "regionId", "bundleId" };
+
     /** Names of the variants of this project */
     public String[] variants;
 
@@ -2,11 +2,16 @@ package com.conveyal.taui.models;
 
 import com.conveyal.taui.AnalysisServerException;
 import com.conveyal.taui.persistence.Persistence;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonView;
+import com.mongodb.DBObject;
+import com.mongodb.QueryBuilder;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -29,35 +34,81 @@ public class Region extends Model implements Cloneable {
     public StatusCode statusCode;
     public String statusMessage;
 
+    /** Children loaded for several regions at once by loadChildren, rather than by each getter */
+    @JsonIgnore
+    private transient Children children;
+
     // don't persist to DB but do expose to API
-    // TODO Don't use "values"
     @JsonView(JsonViews.Api.class)
-    public List<Bundle> getBundles () {
-        return Persistence.bundles.values()
-                .stream()
-                .filter(b -> _id.equals(b.regionId))
-                .collect(Collectors.toList());
+    public Collection<Bundle> getBundles () {
+        if (children != null) return children.bundles;
+        return Persistence.bundles.findPermitted(QueryBuilder.start("regionId").is(_id).get(), accessGroup,
+                Bundle.SUMMARY_FIELDS);
     }
 
-    // TODO Don't use "values"
     @JsonView(JsonViews.Api.class)
-    public List<Project> getProjects () {
-        return Persistence.projects.values()
-                .stream()
-                .filter(s -> _id.equals(s.regionId))
-                .collect(Collectors.toList());
+    public Collection<Project> getProjects () {
+        if (children != null) return children.projects;
+        return Persistence.projects.findPermitted(QueryBuilder.start("regionId").is(_id).get(), accessGroup,
+                Project.SUMMARY_FIELDS);
     }
 
     @JsonView(JsonViews.Api.class)
     public Collection<Bookmark> getBookmarks () {
+        if (children != null) return children.bookmarks;
         return Persistence.bookmarks.getByProperty("regionId", _id);
     }
 
     @JsonView(JsonViews.Api.class)
     public Collection<AggregationArea> getAggregationAreas () {
+        if (children != null) return children.aggregationAreas;
         return Persistence.aggregationAreas.getByProperty("regionId", _id);
     }
 
+    /**
+     * Load the bundles, projects, bookmarks and aggregation areas of all the given regions with one query per type,
+     * rather than several queries per region when each region is serialized. Bundles and projects are read with only
+     * their summary fields; their feeds and analysis settings come with each bundle or project when it is fetched.
+     */
+    public static void loadChildren (Collection<Region> regions, String accessGroup) {
+        List<String> regionIds = regions.stream().map(r -> r._id).collect(Collectors.toList());
+        DBObject query = QueryBuilder.start("regionId").in(regionIds).get();
+
+        Map<String, List<Bundle>> bundles = Persistence.bundles
+                .findPermitted(query, accessGroup, Bundle.SUMMARY_FIELDS).stream()
+                .collect(Collectors.groupingBy(b -> b.regionId));
+        Map<String, List<Project>> projects = Persistence.projects
+                .findPermitted(query, accessGroup, Project.SUMMARY_FIELDS).stream()
+                .collect(Collectors.groupingBy(p -> p.regionId));
+        Map<String, List<Bookmark>> bookmarks = Persistence.bookmarks.find(query).stream()
+                .collect(Collectors.groupingBy(b -> b.regionId));
+        Map<String, List<AggregationArea>> aggregationAreas = Persistence.aggregationAreas.find(query).stream()
+                .collect(Collectors.groupingBy(a -> a.regionId));
+
+        for (Region region : regions) {
+            region.children = new Children(
+                    bundles.getOrDefault(region._id, Collections.emptyList()),
+                    projects.getOrDefault(region._id, Collections.emptyList()),
+                    bookmarks.getOrDefault(region._id, Collections.emptyList()),
+                    aggregationAreas.getOrDefault(region._id, Collections.emptyList()));
+        }
+    }
+
+    private static class Children {
+        final List<Bundle> bundles;
+        final List<Project> projects;
+        final List<Bookmark> bookmarks;
+        final List<AggregationArea> aggregationAreas;
+
+        Children (List<Bundle> bundles, List<Project> projects, List<Bookmark> bookmarks,
+                  List<AggregationArea> aggregationAreas) {
+            this.bundles = bundles;
+            this.projects = projects;
+            this.bookmarks = bookmarks;
+            this.aggregationAreas = aggregationAreas;
+        }
+    }
+
     public List<OpportunityDataset> opportunityDatasets = new ArrayList<>();
 
     public Region clone () {
@@ -14,6 +14,9 @@ import static com.conveyal.r5.analyst.Grid.lonToPixel;
  * Represents a query.
  */
 public class RegionalAnalysis extends Model implements Cloneable {
+    /** Fields left out of summaries */
+    public static final String[] DETAIL_FIELDS = { "request", "bounds" };
+
     public String regionId;
     public String bundleId;
     public String projectId;
@@ -27,6 +30,8 @@ public class RegionalAnalysis extends Model implements Cloneable {
     public int height;
     public int north;
     public int west;
+
+    @JsonView({ JsonViews.Api.class, JsonViews.Db.class })
     public RegionalTask request;
 
     /** Percentile this analysis is using, or -1 if it is pre-percentiles and is using Andrew Owen-style accessibility */
@@ -41,6 +46,7 @@ public class RegionalAnalysis extends Model implements Cloneable {
      * points should be included and only include those points. When you have an irregular analysis region,
      * See also: https://commons.wikimedia.org/wiki/File:The_Gerry-Mander_Edit.png
      */
+    @JsonView({ JsonViews.Api.class, JsonViews.Db.class })
     public Geometry bounds;
 
     /** Is this Analysis complete? */
@@ -50,14 +56,14 @@ public class RegionalAnalysis extends Model implements Cloneable {
     public boolean deleted;
 
     // TODO do statuses differently
-    @JsonView(JsonViews.Api.class)
+    @JsonView(JsonViews.Summary.class)
     public RegionalAnalysisManager.RegionalAnalysisStatus getStatus () {
         return RegionalAnalysisManager.getStatus(this._id);
     }
 
     /**
-     * Using JsonViews doesn't work in the database currently due to https://github.com/mongojack/mongojack/issues/145,
-     * so the status is saved in the db if anything about the regional analysis is changed.
+     * The status is not saved in the database, as documents are written in the Db view, but documents saved before
+     * that (see https://github.com/mongojack/mongojack/issues/145) may still contain it.
      */
     public void setStatus (RegionalAnalysisManager.RegionalAnalysisStatus status) {
         // status is not intended to be persisted, ignore it.
@@ -1,5 +1,6 @@
 package com.conveyal.taui.models;
 
+import com.fasterxml.jackson.annotation.JsonView;
 import java.util.List;
 
 /**
@@ -17,8 +18,14 @@ public class Reroute extends Modification {
     public String fromStop;
     public String toStop;
 
+    @JsonView({ JsonViews.Api.class, JsonViews.Db.class })
     public List<Segment> segments;
 
+    @Override
+    public void validate () {
+        if (segments != null) segments.forEach(Segment::validate);
+    }
+
     /** speed of the adjusted segment, km/h, per segment */
     public int[] segmentSpeeds;
 
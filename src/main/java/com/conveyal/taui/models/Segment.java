@@ -2,14 +2,26 @@ package com.conveyal.taui.models;
 
 import com.conveyal.geojson.GeometryDeserializer;
 import com.conveyal.geojson.GeometrySerializer;
+import com.conveyal.taui.AnalysisServerException;
+import com.conveyal.taui.util.EncodedPolyline;
+import com.fasterxml.jackson.annotation.JsonView;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
 
 /**
  * Represents a single segment of an added trip pattern (between two user-specified points)
  */
 public class Segment {
+    private static final GeometryFactory geometryFactory = new GeometryFactory();
+
+    /** Stored geometries are rounded to about 10 cm */
+    private static final double STORED_COORDINATE_SCALE = 1e6;
+
     /** Is there a stop at the start of this segment */
     public boolean stopAtStart;
 
@@ -31,8 +43,38 @@ public class Segment {
      * iff there are no more segments. This is used when someone first starts drawing a line and
      * they have only drawn one stop so far. Of course a transit line with only one stop would
      * not be particularly useful.
+     *
+     * In the database the geometry is stored as an encoded polyline instead, which is several times smaller than
+     * GeoJSON coordinates and much faster to read.
      */
+    @JsonView(JsonViews.Api.class)
     @JsonDeserialize(using= GeometryDeserializer.class)
     @JsonSerialize(using= GeometrySerializer.class)
     public Geometry geometry;
+
+    /** Check that the geometry can be stored, before saving a modification */
+    public void validate () {
+        if (geometry != null && !(geometry instanceof LineString) && !(geometry instanceof Point)) {
+            throw AnalysisServerException.BadRequest("Segment geometries must be points or line strings.");
+        }
+    }
+
+    /**
+     * Geometries of other types should have been refused by validate. If one is stored anyway, its coordinates are
+     * kept in order rather than failing to save the whole modification.
+     */
+    @JsonView(JsonViews.Db.class)
+    public String getEncodedGeometry () {
+        if (geometry == null) return null;
+        return EncodedPolyline.encode(geometry.getCoordinates(), STORED_COORDINATE_SCALE);
+    }
+
+    /** A single coordinate is a point, as a line string cannot have only one */
+    public void setEncodedGeometry (String encodedGeometry) {
+        if (encodedGeometry == null) return;
+        Coordinate[] coordinates = EncodedPolyline.decode(encodedGeometry, STORED_COORDINATE_SCALE);
+        geometry = coordinates.length == 1
+                ? geometryFactory.createPoint(coordinates[0])
+                : geometryFactory.createLineString(coordinates);
+    }
 }
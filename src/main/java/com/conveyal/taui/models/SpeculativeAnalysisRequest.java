@@ -0,0 +1,19 @@
+package com.conveyal.taui.models;
+
+import java.util.List;
+
+/**
+ * A single point analysis request sent while the user is dragging the origin marker. The origin fields are ignored;
+ * instead the recent positions of the marker are used to guess where it will be dropped.
+ */
+public class SpeculativeAnalysisRequest extends AnalysisRequest {
+    /** Recent positions of the marker, oldest first */
+    public List<TrajectoryPoint> trajectory;
+
+    public static class TrajectoryPoint {
+        public float lat;
+        public float lon;
+        /** Client clock time in milliseconds when the marker was at this position */
+        public long time;
+    }
+}
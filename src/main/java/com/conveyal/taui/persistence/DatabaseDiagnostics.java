@@ -0,0 +1,154 @@
+package com.conveyal.taui.persistence;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Reports on how well the database is serving our queries: the query plan chosen for the query each registered index
+ * is meant to serve (from explain output), how often each index has been used, and the slowest recent operations if
+ * the database profiler is enabled.
+ */
+public class DatabaseDiagnostics {
+    /** Operations slower than this are reported from the profiler */
+    private static final int SLOW_QUERY_MILLIS = 100;
+    private static final int MAX_SLOW_QUERIES = 50;
+
+    public List<QueryPlan> queryPlans = new ArrayList<>();
+    public List<IndexUsage> indexUsage = new ArrayList<>();
+    public List<SlowQuery> slowQueries = new ArrayList<>();
+
+    /** Set if the profiler could not be read, e.g. because it is not enabled */
+    public String slowQueryError;
+
+    static DatabaseDiagnostics diagnose (DB db, String accessGroup) {
+        DatabaseDiagnostics diagnostics = new DatabaseDiagnostics();
+
+        for (Indexes.Index index : Indexes.ALL) {
+            // Explain a query of the shape the index is meant to serve, using the caller's access group.
+            BasicDBObject query = new BasicDBObject();
+            for (String field : index.fields) {
+                query.append(field, "deleted".equals(field) ? false : "accessGroup".equals(field) ? accessGroup : "");
+            }
+            DBObject explain = db.getCollection(index.collection).find(query).explain();
+            diagnostics.queryPlans.add(new QueryPlan(index.collection, query.keySet().toString(), explain));
+        }
+
+        for (String collection : Indexes.ALL.stream().map(i -> i.collection).distinct().toArray(String[]::new)) {
+            try {
+                for (DBObject stats : db.getCollection(collection)
+                        .aggregate(Collections.singletonList(new BasicDBObject("$indexStats", new BasicDBObject())))
+                        .results()) {
+                    diagnostics.indexUsage.add(new IndexUsage(collection, stats));
+                }
+            } catch (MongoException e) {
+                // $indexStats requires MongoDB 3.2
+                diagnostics.indexUsage.add(new IndexUsage(collection, e.getMessage()));
+            }
+        }
+
+        try {
+            DBCollection profile = db.getCollection("system.profile");
+            for (DBObject op : profile.find(new BasicDBObject("millis", new BasicDBObject("$gte", SLOW_QUERY_MILLIS)))
+                    .sort(new BasicDBObject("ts", -1))
+                    .limit(MAX_SLOW_QUERIES)) {
+                diagnostics.slowQueries.add(new SlowQuery(op));
+            }
+            if (diagnostics.slowQueries.isEmpty() && profile.count() == 0) {
+                diagnostics.slowQueryError = "The database profiler is not enabled, see db.setProfilingLevel.";
+            }
+        } catch (MongoException e) {
+            diagnostics.slowQueryError = e.getMessage();
+        }
+
+        return diagnostics;
+    }
+
+    /** Find the first value of a field anywhere in a nested explain document */
+    private static Object findField (Object document, String field) {
+        if (document instanceof DBObject) {
+            DBObject dbObject = (DBObject) document;
+            if (dbObject.containsField(field)) return dbObject.get(field);
+            for (String key : dbObject.keySet()) {
+                Object value = findField(dbObject.get(key), field);
+                if (value != null) return value;
+            }
+        }
+        return null;
+    }
+
+    public static class QueryPlan {
+        public String collection;
+        public String fields;
+        /** The stages of the winning plan, outermost first, e.g. FETCH, IXSCAN */
+        public List<String> stages = new ArrayList<>();
+        public String indexName;
+        public boolean collectionScan;
+        public Object docsExamined;
+        public Object executionTimeMillis;
+
+        QueryPlan (String collection, String fields, DBObject explain) {
+            this.collection = collection;
+            this.fields = fields;
+            for (Object stage = findField(explain, "winningPlan"); stage instanceof DBObject;
+                 stage = ((DBObject) stage).get("inputStage")) {
+                String name = (String) ((DBObject) stage).get("stage");
+                if (name != null) stages.add(name);
+            }
+            Object index = findField(explain, "indexName");
+            indexName = index == null ? null : index.toString();
+            collectionScan = stages.contains("COLLSCAN");
+            docsExamined = findField(explain, "totalDocsExamined");
+            executionTimeMillis = findField(explain, "executionTimeMillis");
+        }
+    }
+
+    public static class IndexUsage {
+        public String collection;
+        public String indexName;
+        public Object operations;
+        public Date since;
+        public String error;
+
+        IndexUsage (String collection, DBObject stats) {
+            this.collection = collection;
+            this.indexName = (String) stats.get("name");
+            DBObject accesses = (DBObject) stats.get("accesses");
+            if (accesses != null) {
+                this.operations = accesses.get("ops");
+                this.since = (Date) accesses.get("since");
+            }
+        }
+
+        IndexUsage (String collection, String error) {
+            this.collection = collection;
+            this.error = error;
+        }
+    }
+
+    /** A slow operation recorded by the profiler. The query itself is left out as it may contain other users' data. */
+    public static class SlowQuery {
+        public String namespace;
+        public String operation;
+        public Object millis;
+        public Object docsExamined;
+        public String planSummary;
+        public Date time;
+
+        SlowQuery (DBObject op) {
+            namespace = (String) op.get("ns");
+            operation = (String) op.get("op");
+            millis = op.get("millis");
+            docsExamined = op.get("docsExamined");
+            planSummary = (String) op.get("planSummary");
+            time = (Date) op.get("ts");
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.conveyal.taui.persistence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A StatusRegistry that is only visible within this process, for use when a single backend instance is running.
+ * Like the TTL index of MongoStatusRegistry, statuses that have not been put for a while are dropped, when they are
+ * next read.
+ */
+public class InMemoryStatusRegistry<V> implements StatusRegistry<V> {
+    private final Map<String, Entry<V>> statuses = new ConcurrentHashMap<>();
+    private final long expireAfterMillis;
+
+    public InMemoryStatusRegistry (int expireAfterSeconds) {
+        this.expireAfterMillis = expireAfterSeconds * 1000L;
+    }
+
+    @Override
+    public void put (String id, V status) {
+        statuses.put(id, new Entry<>(status));
+    }
+
+    @Override
+    public V get (String id) {
+        Entry<V> entry = statuses.get(id);
+        if (entry == null) return null;
+        if (isExpired(entry)) {
+            // Only remove this entry, not one put since we read it.
+            statuses.remove(id, entry);
+            return null;
+        }
+        return entry.status;
+    }
+
+    @Override
+    public Collection<V> values () {
+        List<V> values = new ArrayList<>();
+        statuses.forEach((id, entry) -> {
+            if (isExpired(entry)) statuses.remove(id, entry);
+            else values.add(entry.status);
+        });
+        return values;
+    }
+
+    @Override
+    public boolean remove (String id) {
+        return statuses.remove(id) != null;
+    }
+
+    private boolean isExpired (Entry<V> entry) {
+        return System.currentTimeMillis() - entry.putAt > expireAfterMillis;
+    }
+
+    private static class Entry<V> {
+        final V status;
+        final long putAt = System.currentTimeMillis();
+
+        Entry (V status) {
+            this.status = status;
+        }
+    }
+}
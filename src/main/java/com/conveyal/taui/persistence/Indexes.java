@@ -0,0 +1,58 @@
+package com.conveyal.taui.persistence;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The indexes needed by the queries we make on each collection. They are created at startup if they do not already
+ * exist, so a new deployment or a new query does not silently fall back to scanning whole collections.
+ */
+public class Indexes {
+    private static final Logger LOG = LoggerFactory.getLogger(Indexes.class);
+
+    public static final List<Index> ALL = Arrays.asList(
+            // Finding the modifications in a project, e.g. for every analysis request
+            new Index("modifications", "projectId", "accessGroup"),
+            // Listing the projects and bundles in a region
+            new Index("projects", "regionId", "accessGroup"),
+            new Index("bundles", "regionId", "accessGroup"),
+            new Index("bundles", "accessGroup"),
+            // Listing regions
+            new Index("regions", "accessGroup"),
+            // Listing the regional analyses in a region that have not been deleted
+            new Index("regional-analyses", "regionId", "accessGroup", "deleted"),
+            new Index("bookmarks", "regionId", "accessGroup"),
+            new Index("aggregationAreas", "regionId")
+    );
+
+    /** Create any indexes that do not exist yet. Existing indexes are left as they are. */
+    public static void ensureAll (DB db) {
+        for (Index index : ALL) {
+            LOG.info("Ensuring index {} on {}", index.getKeys(), index.collection);
+            db.getCollection(index.collection).createIndex(index.getKeys(), new BasicDBObject("background", true));
+        }
+    }
+
+    /** An ascending index on one or more fields of a collection */
+    public static class Index {
+        public final String collection;
+        public final String[] fields;
+
+        public Index (String collection, String... fields) {
+            this.collection = collection;
+            this.fields = fields;
+        }
+
+        public DBObject getKeys () {
+            BasicDBObject keys = new BasicDBObject();
+            for (String field : fields) keys.append(field, 1);
+            return keys;
+        }
+    }
+}
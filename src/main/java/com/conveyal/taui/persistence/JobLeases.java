@@ -0,0 +1,63 @@
+package com.conveyal.taui.persistence;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.QueryBuilder;
+
+import java.util.Date;
+
+/**
+ * Records which backend instance owns (i.e. is assembling the results of) each regional analysis job, so that several
+ * backend instances can run behind a load balancer. Ownership is a lease that expires unless the owner renews it, so a
+ * job held by an instance that has died can be recognized as orphaned by the others.
+ */
+public class JobLeases {
+    private static final int DUPLICATE_KEY_ERROR = 11000;
+
+    private final DBCollection collection;
+
+    /** The ID of this backend instance */
+    public final String nodeId;
+
+    private final long leaseMillis;
+
+    public JobLeases (DBCollection collection, String nodeId, long leaseMillis) {
+        this.collection = collection;
+        this.nodeId = nodeId;
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * Take or renew the lease on a job. This succeeds if nobody holds the lease, if this instance already holds it, or
+     * if the previous holder's lease has expired. Errors other than the lease being held elsewhere are thrown, so that
+     * a transient database problem is not mistaken for a lost lease.
+     *
+     * @return true if this instance now holds the lease
+     */
+    public boolean acquire (String jobId) {
+        Date now = new Date();
+        DBObject query = QueryBuilder.start("_id").is(jobId).and(QueryBuilder.start().or(
+                QueryBuilder.start("owner").is(nodeId).get(),
+                QueryBuilder.start("expiresAt").lessThan(now).get()
+        ).get()).get();
+        DBObject update = new BasicDBObject("$set", new BasicDBObject("owner", nodeId)
+                .append("expiresAt", new Date(now.getTime() + leaseMillis)));
+
+        try {
+            collection.findAndModify(query, null, null, false, update, true, true);
+            return true;
+        } catch (MongoException e) {
+            // A duplicate key error means the upsert tried to insert a new lease because someone else holds an
+            // unexpired one.
+            if (e.getCode() != DUPLICATE_KEY_ERROR) throw e;
+            return false;
+        }
+    }
+
+    /** Give up the lease on a job held by this instance. */
+    public void release (String jobId) {
+        collection.remove(new BasicDBObject("_id", jobId).append("owner", nodeId));
+    }
+}
@@ -0,0 +1,329 @@
+package com.conveyal.taui.persistence;
+
+import com.conveyal.taui.AnalysisServerException;
+import com.conveyal.taui.models.JsonViews;
+import com.conveyal.taui.models.Model;
+import com.conveyal.taui.util.JsonUtil;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Stores models in memory and in a file on this machine, so that the server can run without MongoDB (e.g. offline or
+ * in tests). The file is a log with one line per write, holding either the whole object as JSON or a removal marker;
+ * it is replayed and compacted when the map is opened. Queries are evaluated by QueryMatcher, using in-memory indexes
+ * on the fields we most often query on. Projections are ignored, as the whole objects are in memory anyway.
+ *
+ * Objects are kept serialized, and every caller gets its own copy, as in MongoMap.
+ */
+public class LocalMap<V extends Model> extends ModelMap<V> {
+    private static final Logger LOG = LoggerFactory.getLogger(LocalMap.class);
+
+    private static final String[] INDEXED_FIELDS = { "accessGroup", "regionId", "projectId" };
+    private static final String REMOVED = "_removed";
+
+    private static final ObjectMapper mapper = JsonUtil.getObjectMapper(JsonViews.Db.class);
+
+    private final File file;
+    private OutputStream log;
+    private boolean lastAppendFailed = false;
+
+    /** All documents by ID, sorted as MongoDB sorts our ObjectId strings */
+    private final TreeMap<String, Document> documents = new TreeMap<>();
+
+    /** For each indexed field, the IDs of the documents having each value */
+    private final Map<String, Map<Object, Set<String>>> indexes = new HashMap<>();
+
+    public LocalMap (File file, Class<V> type) {
+        super(type);
+        this.file = file;
+        for (String field : INDEXED_FIELDS) indexes.put(field, new HashMap<>());
+
+        try {
+            if (file.exists()) load();
+            compact();
+            log = new BufferedOutputStream(new FileOutputStream(file, true));
+        } catch (IOException e) {
+            throw AnalysisServerException.Unknown(e);
+        }
+        LOG.info("Loaded {} {} objects from {}", documents.size(), type.getSimpleName(), file);
+    }
+
+    /** Replay the log */
+    private void load () throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                JsonNode node;
+                try {
+                    node = mapper.readTree(line);
+                } catch (IOException e) {
+                    // A write that failed part way through, which was reported to its caller and never applied.
+                    LOG.warn("Skipping incomplete write in {}", file);
+                    continue;
+                }
+                String id = node.get("_id").asText();
+                unindex(documents.remove(id));
+                if (!node.has(REMOVED)) index(new Document(line.getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+    }
+
+    /** Rewrite the log with only the current version of each object */
+    private void compact () throws IOException {
+        File compacted = new File(file.getPath() + ".compacted");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(compacted))) {
+            for (Document document : documents.values()) write(out, document.json);
+        }
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void write (OutputStream out, byte[] json) throws IOException {
+        out.write(json);
+        out.write('\n');
+    }
+
+    private void append (byte[] json) {
+        try {
+            // Start a new line after a failed write, so that its remains are not joined to this one.
+            if (lastAppendFailed) log.write('\n');
+            write(log, json);
+            log.flush();
+            lastAppendFailed = false;
+        } catch (IOException e) {
+            lastAppendFailed = true;
+            throw AnalysisServerException.Unknown(e);
+        }
+    }
+
+    private void store (V value) {
+        Document document;
+        try {
+            document = new Document(mapper.writeValueAsBytes(value));
+        } catch (IOException e) {
+            throw AnalysisServerException.Unknown(e);
+        }
+        // Write to disk first, so that memory is left unchanged if the write fails.
+        append(document.json);
+        unindex(documents.get(value._id));
+        index(document);
+    }
+
+    private void delete (String id) {
+        ObjectNode removal = mapper.createObjectNode().put("_id", id).put(REMOVED, true);
+        try {
+            append(mapper.writeValueAsBytes(removal));
+        } catch (IOException e) {
+            throw AnalysisServerException.Unknown(e);
+        }
+        unindex(documents.remove(id));
+    }
+
+    private void index (Document document) {
+        documents.put(document.id, document);
+        for (String field : INDEXED_FIELDS) {
+            Object value = document.fields.get(field);
+            if (value != null) indexes.get(field).computeIfAbsent(value, v -> new HashSet<>()).add(document.id);
+        }
+    }
+
+    private void unindex (Document document) {
+        if (document == null) return;
+        for (String field : INDEXED_FIELDS) {
+            Set<String> ids = indexes.get(field).get(document.fields.get(field));
+            if (ids != null) ids.remove(document.id);
+        }
+    }
+
+    /**
+     * The documents matching a query, in order of ID. If the query requires an indexed field to have a value, only
+     * the documents having that value are considered.
+     */
+    private synchronized List<Document> match (DBObject query) {
+        Collection<String> candidates = null;
+        for (DBObject condition : getConjuncts(query)) {
+            for (String field : INDEXED_FIELDS) {
+                Object value = condition.get(field);
+                if (value != null && !(value instanceof DBObject)) {
+                    Set<String> ids = indexes.get(field).getOrDefault(value, Collections.emptySet());
+                    if (candidates == null || ids.size() < candidates.size()) candidates = ids;
+                }
+            }
+        }
+
+        Collection<Document> documentsToTest = candidates == null
+                ? documents.values()
+                : candidates.stream().sorted().map(documents::get).collect(Collectors.toList());
+        return documentsToTest.stream()
+                .filter(document -> QueryMatcher.matches(query, document.fields))
+                .collect(Collectors.toList());
+    }
+
+    /** The query itself and, recursively, the queries it requires all of with $and */
+    private static List<DBObject> getConjuncts (DBObject query) {
+        List<DBObject> conjuncts = new ArrayList<>();
+        conjuncts.add(query);
+        Object and = query.get("$and");
+        if (and instanceof Collection) {
+            for (Object q : (Collection<?>) and) conjuncts.addAll(getConjuncts((DBObject) q));
+        }
+        return conjuncts;
+    }
+
+    private V read (Document document) {
+        try {
+            return mapper.readValue(document.json, type);
+        } catch (IOException e) {
+            throw AnalysisServerException.Unknown(e);
+        }
+    }
+
+    private List<V> readAll (List<Document> documents) {
+        return documents.stream().map(this::read).collect(Collectors.toList());
+    }
+
+    protected V findOneById (String id) {
+        Document document;
+        synchronized (this) {
+            document = documents.get(id);
+        }
+        return document == null ? null : read(document);
+    }
+
+    public Collection<V> find(DBObject query) {
+        return readAll(match(query));
+    }
+
+    public Collection<V> findPermitted(DBObject query, String accessGroup, String... fields) {
+        return findPermitted(query, accessGroup);
+    }
+
+    protected Iterator<V> findSortedById (DBObject query, DBObject keys, int limit) {
+        List<Document> matches = match(query);
+        if (limit > 0 && matches.size() > limit) matches = matches.subList(0, limit);
+        // Deserialize lazily, as the results are streamed
+        return matches.stream().map(this::read).iterator();
+    }
+
+    protected synchronized void insert (List<V> values) {
+        for (V value : values) {
+            if (documents.containsKey(value._id)) {
+                throw AnalysisServerException.BadRequest(String.format("The data for _id %s already exists", value._id));
+            }
+        }
+        values.forEach(this::store);
+    }
+
+    public synchronized V put(V value, DBObject optionalQuery) {
+        Document existing = documents.get(value._id);
+
+        if (existing == null) {
+            throw AnalysisServerException.NotFound("The data you attempted to update could not be found. ");
+        } else if (!Objects.equals(value.nonce, existing.fields.get("nonce"))) {
+            throw AnalysisServerException.Nonce();
+        } else if (optionalQuery != null && !QueryMatcher.matches(optionalQuery, existing.fields)) {
+            throw AnalysisServerException.Forbidden("The data you attempted to update is not in your access group.");
+        }
+
+        // Update the locking variables
+        value.updateLock();
+
+        // Set `createdAt` and `createdBy` if they have never been set
+        if (value.createdAt == null) value.createdAt = value.updatedAt;
+        if (value.createdBy == null) value.createdBy = value.updatedBy;
+
+        store(value);
+        V result = read(documents.get(value._id));
+
+        LOG.info("{} {} updated by {} ({})", result.toString(), result.name, result.updatedBy, result.accessGroup);
+        return result;
+    }
+
+    public synchronized V removeIfPermitted(String key, String accessGroup) {
+        Document document = documents.get(key);
+        if (document == null || !accessGroup.equals(document.fields.get("accessGroup"))) {
+            throw AnalysisServerException.NotFound("The data you attempted to remove could not be found.");
+        }
+        delete(key);
+        return read(document);
+    }
+
+    public synchronized V remove(Object key) {
+        if (!documents.containsKey(key)) {
+            throw AnalysisServerException.NotFound(String.format("The data for _id %s does not exist", key));
+        }
+        delete((String) key);
+        return null;
+    }
+
+    public synchronized int size() {
+        return documents.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return documents.isEmpty();
+    }
+
+    public synchronized void clear() {
+        for (String id : new ArrayList<>(documents.keySet())) delete(id);
+    }
+
+    public synchronized Set<String> keySet() {
+        return Collections.unmodifiableSet(new HashSet<>(documents.keySet()));
+    }
+
+    public Collection<V> values() {
+        return Collections.unmodifiableCollection(find(new BasicDBObject()));
+    }
+
+    public Set<Entry<String, V>> entrySet() {
+        return Collections.unmodifiableSet(find(new BasicDBObject()).stream()
+                .map(value -> new AbstractMap.SimpleImmutableEntry<>(value._id, value))
+                .collect(Collectors.toSet()));
+    }
+
+    /** An object as stored, with its top-level scalar fields for evaluating queries */
+    private static class Document {
+        final String id;
+        final byte[] json;
+        final Map<String, Object> fields = new HashMap<>();
+
+        Document (byte[] json) throws IOException {
+            this.json = json;
+            Map<String, Object> document = mapper.readValue(json, BasicDBObject.class);
+            for (Map.Entry<String, Object> field : document.entrySet()) {
+                Object value = field.getValue();
+                if (!(value instanceof Map) && !(value instanceof Collection)) fields.put(field.getKey(), value);
+            }
+            this.id = (String) fields.get("_id");
+        }
+    }
+}
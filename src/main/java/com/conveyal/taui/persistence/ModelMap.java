@@ -0,0 +1,232 @@
+package com.conveyal.taui.persistence;
+
+import com.conveyal.r5.common.JsonUtilities;
+import com.conveyal.taui.AnalysisServerException;
+import com.conveyal.taui.models.Model;
+import com.conveyal.taui.util.JsonUtil;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.QueryBuilder;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.Request;
+import spark.Response;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A collection of models, keyed on ID. This holds the logic shared by the storage backends (access checks, locking,
+ * JSON requests and responses); MongoMap stores the models in MongoDB and LocalMap in files on this machine.
+ *
+ * Queries are MongoDB queries, as built with QueryBuilder, whichever backend is in use.
+ */
+public abstract class ModelMap<V extends Model> implements Map<String, V> {
+    private static final Logger LOG = LoggerFactory.getLogger(ModelMap.class);
+
+    protected final Class<V> type;
+
+    protected ModelMap (Class<V> type) {
+        this.type = type;
+    }
+
+    /** @return the object with the given ID, or null if there is none */
+    protected abstract V findOneById (String id);
+
+    public abstract Collection<V> find(DBObject query);
+
+    /** Find objects with only the given fields filled in, to avoid loading and deserializing whole documents */
+    public abstract Collection<V> findPermitted(DBObject query, String accessGroup, String... fields);
+
+    /** Find the objects matching a query in order of ID, leaving out fields excluded by keys. 0 means no limit. */
+    protected abstract Iterator<V> findSortedById (DBObject query, DBObject keys, int limit);
+
+    /** Release anything held by an iterator returned by findSortedById */
+    protected void close (Iterator<V> results) { }
+
+    /** Store new objects, which have been given their IDs and locking fields */
+    protected abstract void insert (List<V> values);
+
+    public abstract V put(V value, DBObject optionalQuery);
+
+    public abstract V removeIfPermitted(String key, String accessGroup);
+
+    public boolean containsKey(Object key) {
+        if (key instanceof String)
+            return findOneById((String) key) != null;
+        else return false;
+    }
+
+    public boolean containsValue(Object value) {
+        throw AnalysisServerException.Unknown("Unsupported operation");
+    }
+
+    public V findByIdFromRequestIfPermitted(Request request) {
+        return findByIdIfPermitted(request.params("_id"), request.attribute("accessGroup"));
+    }
+
+    public V findByIdIfPermitted(String id, String accessGroup) {
+        V result = findOneById(id);
+
+        if (result == null) {
+            throw AnalysisServerException.NotFound("The data you requested could not be found.");
+        } else if (!accessGroup.equals(result.accessGroup)) {
+            throw AnalysisServerException.Forbidden("You do not have permission to access this data.");
+        } else {
+            return result;
+        }
+    }
+
+    public V get(Object key) {
+        return findOneById((String) key);
+    }
+
+    public Collection<V> findAllForRequest(Request req) {
+        return find(QueryBuilder.start("accessGroup").is(req.attribute("accessGroup")).get());
+    }
+
+    public Collection<V> findPermitted(DBObject query, String accessGroup) {
+        return find(QueryBuilder.start().and(
+                query,
+                QueryBuilder.start("accessGroup").is(accessGroup).get()
+        ).get());
+    }
+
+    /** Get all objects where property == value */
+    public Collection<V> getByProperty (String property, Object value) {
+        return find(new BasicDBObject(property, value));
+    }
+
+    /**
+     * Write the objects matching a query to the response as a JSON array, serializing each one as it is read from the
+     * database rather than loading them all into memory first. The optional limit and after query parameters page
+     * through the results in order of ID, after being the ID of the last object on the previous page.
+     */
+    public Object streamPermitted(DBObject query, Request req, Response res) throws IOException {
+        return streamPermitted(query, new String[0], req, res);
+    }
+
+    /**
+     * As above, but if the summary query parameter is true, leave the given detail fields out of the query and write
+     * the objects in the Summary view. List views only need names and statuses, not geometries and timetables.
+     */
+    public Object streamPermitted(DBObject query, String[] detailFields, Request req, Response res) throws IOException {
+        QueryBuilder permittedQuery = QueryBuilder.start().and(
+                query,
+                QueryBuilder.start("accessGroup").is(req.attribute("accessGroup")).get()
+        );
+        String after = req.queryParams("after");
+        if (after != null) permittedQuery.and(QueryBuilder.start("_id").greaterThan(after).get());
+
+        boolean summary = Boolean.parseBoolean(req.queryParams("summary"));
+        BasicDBObject keys = new BasicDBObject();
+        if (summary) for (String field : detailFields) keys.append(field, 0);
+        ObjectMapper mapper = summary ? JsonUtil.summaryObjectMapper : JsonUtil.objectMapper;
+
+        int limit = 0;
+        if (req.queryParams("limit") != null) {
+            try {
+                limit = Integer.parseInt(req.queryParams("limit"));
+            } catch (NumberFormatException e) {
+                throw AnalysisServerException.BadRequest("Limit must be an integer.");
+            }
+        }
+
+        Iterator<V> results = findSortedById(permittedQuery.get(), keys, limit);
+        res.type("application/json");
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(res.raw().getOutputStream())) {
+            // Leave the response open for Spark
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartArray();
+            while (results.hasNext()) mapper.writeValue(generator, results.next());
+            generator.writeEndArray();
+        } finally {
+            close(results);
+        }
+        // Commit the response, so that Spark does not try to write a body of its own.
+        res.raw().flushBuffer();
+        return "";
+    }
+
+    public V createFromJSONRequest(Request request, Class<V> type) throws IOException {
+        V json = JsonUtilities.objectMapper.readValue(request.body(), type);
+
+        // Set `createdBy` and `accessGroup`
+        json.accessGroup = request.attribute("accessGroup");
+        json.createdBy = request.attribute("email");
+
+        return create(json);
+    }
+
+    public V create(V value) {
+        // Create an ID
+        value._id = new ObjectId().toString();
+
+        // Set updated
+        value.updateLock();
+
+        // Set `createdAt` to `updatedAt` since it was first creation
+        value.createdAt = value.updatedAt;
+
+        // Set `updatedBy` to whomever created it
+        value.updatedBy = value.createdBy;
+
+        // Insert into the DB
+        insert(Collections.singletonList(value));
+
+        return value;
+    }
+
+    /**
+     * Insert many new objects in one round trip. Unlike create, IDs that are already set are kept, so that callers can
+     * refer to the new objects' IDs from one another before inserting them; `updatedBy` is also kept if set.
+     */
+    public List<V> createAll(List<V> values) {
+        if (values.isEmpty()) return values;
+
+        for (V value : values) {
+            if (value._id == null) value._id = new ObjectId().toString();
+            value.updateLock();
+            value.createdAt = value.updatedAt;
+            if (value.updatedBy == null) value.updatedBy = value.createdBy;
+        }
+
+        insert(values);
+
+        LOG.info("{} {} objects created", values.size(), type.getSimpleName());
+        return values;
+    }
+
+    public V updateFromJSONRequest(Request request, Class<V> type) throws IOException {
+        V json = JsonUtilities.objectMapper.readValue(request.body(), type);
+        // Add the additional check for the same access group
+        return updateByUserIfPermitted(json, request.attribute("email"), request.attribute("accessGroup"));
+    }
+
+    public V updateByUserIfPermitted(V value, String updatedBy, String accessGroup) {
+        // Set `updatedBy`
+        value.updatedBy = updatedBy;
+
+        return put(value, QueryBuilder.start("accessGroup").is(accessGroup).get());
+    }
+
+    public V put(String key, V value) {
+        if (key != value._id) throw AnalysisServerException.BadRequest("ID does not match");
+        return put(value, null);
+    }
+
+    public V put(V value) {
+        return put(value, null);
+    }
+
+    public void putAll(Map<? extends String, ? extends V> m) {
+        m.forEach(this::put);
+    }
+}
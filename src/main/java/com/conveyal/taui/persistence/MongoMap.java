@@ -1,17 +1,21 @@
 package com.conveyal.taui.persistence;
 
-import com.conveyal.r5.common.JsonUtilities;
 import com.conveyal.taui.AnalysisServerException;
+import com.conveyal.taui.models.JsonViews;
 import com.conveyal.taui.models.Model;
+import com.conveyal.taui.util.JsonUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
 import com.mongodb.QueryBuilder;
-import org.bson.types.ObjectId;
+import org.mongojack.DBCursor;
 import org.mongojack.JacksonDBCollection;
 import org.mongojack.WriteResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import spark.Request;
 
 import java.io.IOException;
 import java.util.AbstractMap;
@@ -19,128 +23,143 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
- * Make an attempt at simulating a MapDB-style interface
+ * Make an attempt at simulating a MapDB-style interface, storing models in a MongoDB collection.
+ *
+ * Objects fetched by ID are kept in a read-through cache. A cached object younger than VALIDATE_AFTER_MILLIS is used
+ * as is; an older one is used only after checking that its nonce (which changes on every write) is still the one in
+ * the database, which is a much smaller query than fetching the object. Our own writes update the cache directly.
+ * Cached objects are kept serialized, and every caller gets its own copy, as callers modify the objects they get.
+ *
+ * Updates send only the top-level fields that changed when the document as we last wrote it is still cached under the
+ * nonce being updated, so that e.g. a status update does not rewrite a region's or modification's geometries.
  */
-public class MongoMap<V extends Model> implements Map<String, V> {
+public class MongoMap<V extends Model> extends ModelMap<V> {
     private static Logger LOG = LoggerFactory.getLogger(MongoMap.class);
 
-    private JacksonDBCollection<V, String> wrappedCollection;
-
-    public MongoMap (JacksonDBCollection<V, String> wrappedCollection) {
-        this.wrappedCollection = wrappedCollection;
-    }
+    private static final int MAX_CACHED_OBJECTS = 1000;
+    private static final long VALIDATE_AFTER_MILLIS = 1000;
 
-    public int size() {
-        return (int) wrappedCollection.getCount();
-    }
+    /**
+     * Converts objects to the documents stored in the database, in the Db view, and serializes cached objects. MongoJack
+     * does not apply views when writing (https://github.com/mongojack/mongojack/issues/145), so we convert objects
+     * ourselves before inserting or updating them.
+     */
+    private static final ObjectMapper documentMapper = JsonUtil.getObjectMapper(JsonViews.Db.class);
 
-    public boolean isEmpty() {
-        return wrappedCollection.getCount() > 0;
-    }
+    private JacksonDBCollection<V, String> wrappedCollection;
 
-    public boolean containsKey(Object key) {
-        if (key instanceof String)
-            return wrappedCollection.findOneById((String) key) != null;
-        else return false;
-    }
+    private final Cache<String, CachedObject> cache = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_OBJECTS)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
 
-    public boolean containsValue(Object value) {
-        throw AnalysisServerException.Unknown("Unsupported operation");
+    public MongoMap (JacksonDBCollection<V, String> wrappedCollection, Class<V> type) {
+        super(type);
+        this.wrappedCollection = wrappedCollection;
     }
 
-    public V findByIdFromRequestIfPermitted(Request request) {
-        return findByIdIfPermitted(request.params("_id"), request.attribute("accessGroup"));
-    }
+    /** Get an object by ID from the cache if it is current, otherwise from the database. */
+    protected V findOneById (String id) {
+        CachedObject cached = cache.getIfPresent(id);
+        if (cached != null && cached.nonce != null) {
+            if (System.currentTimeMillis() - cached.validatedAt < VALIDATE_AFTER_MILLIS) {
+                return cached.read();
+            }
+            DBObject current = wrappedCollection.getDbCollection()
+                    .findOne(new BasicDBObject("_id", id), new BasicDBObject("nonce", 1));
+            if (current != null && cached.nonce.equals(current.get("nonce"))) {
+                cached.validatedAt = System.currentTimeMillis();
+                return cached.read();
+            }
+        }
 
-    public V findByIdIfPermitted(String id, String accessGroup) {
         V result = wrappedCollection.findOneById(id);
-
-        if (result == null) {
-            throw AnalysisServerException.NotFound("The data you requested could not be found.");
-        } else if (!accessGroup.equals(result.accessGroup)) {
-            throw AnalysisServerException.Forbidden("You do not have permission to access this data.");
-        } else {
-            return result;
-        }
+        cache(result);
+        if (result == null) cache.invalidate(id);
+        return result;
     }
 
-    public V get(Object key) {
-        return wrappedCollection.findOneById((String) key);
+    private void cache (V value) {
+        cache(value, null);
     }
 
-    public Collection<V> findAllForRequest(Request req) {
-        return find(QueryBuilder.start("accessGroup").is(req.attribute("accessGroup")).get());
+    private void cache (V value, BasicDBObject document) {
+        if (value == null || value._id == null) return;
+        try {
+            cache.put(value._id, new CachedObject(documentMapper.writeValueAsBytes(value), value.nonce, document));
+        } catch (JsonProcessingException e) {
+            LOG.warn("Could not cache {} {}", type.getSimpleName(), value._id, e);
+            cache.invalidate(value._id);
+        }
     }
 
-    public Collection<V> findPermitted(DBObject query, String accessGroup) {
-        return find(QueryBuilder.start().and(
-                query,
-                QueryBuilder.start("accessGroup").is(accessGroup).get()
-        ).get());
-    }
+    /** An object as stored in the database, and when it was last known to be current */
+    private class CachedObject {
+        final byte[] json;
+        final String nonce;
+        /** The whole document as last written by put, if this object was last written by put */
+        final BasicDBObject document;
+        volatile long validatedAt = System.currentTimeMillis();
+
+        CachedObject (byte[] json, String nonce, BasicDBObject document) {
+            this.json = json;
+            this.nonce = nonce;
+            this.document = document;
+        }
 
-    public Collection<V> find(DBObject query) {
-        return wrappedCollection.find(query).toArray();
+        V read () {
+            try {
+                return documentMapper.readValue(json, type);
+            } catch (IOException e) {
+                throw AnalysisServerException.Unknown(e);
+            }
+        }
     }
 
-    /** Get all objects where property == value */
-    public Collection<V> getByProperty (String property, Object value) {
-        return wrappedCollection.find().is(property, value).toArray();
+    public int size() {
+        return (int) wrappedCollection.getCount();
     }
 
-    public V createFromJSONRequest(Request request, Class<V> type) throws IOException {
-        V json = JsonUtilities.objectMapper.readValue(request.body(), type);
-
-        // Set `createdBy` and `accessGroup`
-        json.accessGroup = request.attribute("accessGroup");
-        json.createdBy = request.attribute("email");
-
-        return create(json);
+    public boolean isEmpty() {
+        return wrappedCollection.getCount() > 0;
     }
 
-    public V create(V value) {
-        // Create an ID
-        value._id = new ObjectId().toString();
-
-        // Set updated
-        value.updateLock();
-
-        // Set `createdAt` to `updatedAt` since it was first creation
-        value.createdAt = value.updatedAt;
-
-        // Set `updatedBy` to whomever created it
-        value.updatedBy = value.createdBy;
-
-        // Insert into the DB
-        wrappedCollection.insert(value);
-
-        return value;
+    protected Iterator<V> findSortedById (DBObject query, DBObject keys, int limit) {
+        return wrappedCollection.find(query, keys).sort(new BasicDBObject("_id", 1)).limit(limit);
     }
 
-    public V updateFromJSONRequest(Request request, Class<V> type) throws IOException {
-        V json = JsonUtilities.objectMapper.readValue(request.body(), type);
-        // Add the additional check for the same access group
-        return updateByUserIfPermitted(json, request.attribute("email"), request.attribute("accessGroup"));
+    @Override
+    protected void close (Iterator<V> results) {
+        ((DBCursor<V>) results).close();
     }
 
-    public V updateByUserIfPermitted(V value, String updatedBy, String accessGroup) {
-        // Set `updatedBy`
-        value.updatedBy = updatedBy;
-
-        return put(value, QueryBuilder.start("accessGroup").is(accessGroup).get());
+    public Collection<V> find(DBObject query) {
+        return wrappedCollection.find(query).toArray();
     }
 
-    public V put(String key, V value) {
-        if (key != value._id) throw AnalysisServerException.BadRequest("ID does not match");
-        return put(value, null);
+    public Collection<V> findPermitted(DBObject query, String accessGroup, String... fields) {
+        BasicDBObject keys = new BasicDBObject();
+        for (String field : fields) keys.append(field, 1);
+        return wrappedCollection.find(QueryBuilder.start().and(
+                query,
+                QueryBuilder.start("accessGroup").is(accessGroup).get()
+        ).get(), keys).toArray();
     }
 
-    public V put(V value) {
-        return put(value, null);
+    protected void insert (List<V> values) {
+        List<DBObject> documents = values.stream()
+                .map(MongoMap::toDocument)
+                .collect(Collectors.toList());
+        wrappedCollection.getDbCollection().insert(documents);
+        values.forEach(this::cache);
     }
 
     public V put(V value, DBObject optionalQuery) {
@@ -162,13 +181,18 @@ public class MongoMap<V extends Model> implements Map<String, V> {
         if (value.createdBy == null) value.createdBy = value.updatedBy;
 
         // Convert the model into a db object
-        BasicDBObject dbObject = JsonUtilities.objectMapper.convertValue(value, BasicDBObject.class);
+        BasicDBObject dbObject = toDocument(value);
 
-        // Update
-        V result = wrappedCollection.findAndModify(query.get(), null, null, false, dbObject, true, false);
+        // Update only what changed if we know what the document being updated contains, otherwise replace it
+        CachedObject cached = cache.getIfPresent(value._id);
+        DBObject update = cached != null && cached.document != null && cached.nonce.equals(currentNonce)
+                ? getChanges(cached.document, dbObject)
+                : dbObject;
+        V result = wrappedCollection.findAndModify(query.get(), null, null, false, update, true, false);
 
         // If it doesn't result in an update, probably throw an error
         if (result == null) {
+            cache.invalidate(value._id);
             result = wrappedCollection.findOneById(value._id);
             if (result == null) {
                 throw AnalysisServerException.NotFound("The data you attempted to update could not be found. ");
@@ -179,6 +203,8 @@ public class MongoMap<V extends Model> implements Map<String, V> {
             }
         }
 
+        cache(result, dbObject);
+
         // Log the result
         LOG.info("{} {} updated by {} ({})", result.toString(), result.name, result.updatedBy, result.accessGroup);
 
@@ -186,11 +212,44 @@ public class MongoMap<V extends Model> implements Map<String, V> {
         return result;
     }
 
+    /**
+     * Convert an object to the document stored in the database. documentMapper writes dates as epoch milliseconds, so
+     * the dates are put back as Dates, to be stored as BSON dates as MongoJack stores them.
+     */
+    private static BasicDBObject toDocument (Model value) {
+        BasicDBObject document = documentMapper.convertValue(value, BasicDBObject.class);
+        if (value.createdAt != null) document.put("createdAt", value.createdAt);
+        if (value.updatedAt != null) document.put("updatedAt", value.updatedAt);
+        return document;
+    }
+
+    /** A $set and $unset update turning one document into another, comparing top-level fields */
+    private static DBObject getChanges (BasicDBObject previous, BasicDBObject updated) {
+        BasicDBObject set = new BasicDBObject();
+        for (Map.Entry<String, Object> field : updated.entrySet()) {
+            // deepEquals, as binary fields (e.g. compressedR5) are byte arrays
+            if (!previous.containsField(field.getKey()) || !Objects.deepEquals(previous.get(field.getKey()), field.getValue())) {
+                set.append(field.getKey(), field.getValue());
+            }
+        }
+
+        BasicDBObject unset = new BasicDBObject();
+        for (String key : previous.keySet()) {
+            if (!updated.containsField(key)) unset.append(key, "");
+        }
+
+        // The nonce always changes, so there is always something to set
+        BasicDBObject changes = new BasicDBObject("$set", set);
+        if (!unset.isEmpty()) changes.append("$unset", unset);
+        return changes;
+    }
+
     public V removeIfPermitted(String key, String accessGroup) {
         V result = wrappedCollection.findAndRemove(QueryBuilder.start().and(
                 QueryBuilder.start("_id").is(key).get(),
                 QueryBuilder.start("accessGroup").is(accessGroup).get()
         ).get());
+        cache.invalidate(key);
 
         if (result == null) {
             throw AnalysisServerException.NotFound("The data you attempted to remove could not be found.");
@@ -201,6 +260,7 @@ public class MongoMap<V extends Model> implements Map<String, V> {
 
     public V remove(Object key) {
         WriteResult<V, String> result = wrappedCollection.removeById((String) key);
+        cache.invalidate(key);
         LOG.info(result.toString());
         if (result.getN() == 0) {
             throw AnalysisServerException.NotFound(String.format("The data for _id %s does not exist", key));
@@ -209,10 +269,6 @@ public class MongoMap<V extends Model> implements Map<String, V> {
         return null;
     }
 
-    public void putAll(Map<? extends String, ? extends V> m) {
-        m.forEach(this::put);
-    }
-
     public void clear() {
         Iterator<V> it = wrappedCollection.find().iterator();
 
@@ -220,6 +276,7 @@ public class MongoMap<V extends Model> implements Map<String, V> {
             // TODO will this work?
             it.remove();
         }
+        cache.invalidateAll();
     }
 
     public Set<String> keySet() {
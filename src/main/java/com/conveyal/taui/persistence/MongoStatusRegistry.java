@@ -0,0 +1,64 @@
+package com.conveyal.taui.persistence;
+
+import com.conveyal.taui.util.JsonUtil;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A StatusRegistry stored in a MongoDB collection, so that statuses written by one backend instance can be read by all
+ * the others. Each document is stamped with the time it was last written and a TTL index removes statuses that have
+ * not been written for a while, so registries do not grow without bound when an instance dies.
+ */
+public class MongoStatusRegistry<V> implements StatusRegistry<V> {
+    private static final String UPDATED_AT = "statusUpdatedAt";
+
+    private final DBCollection collection;
+    private final Class<V> type;
+
+    public MongoStatusRegistry (DBCollection collection, Class<V> type, int expireAfterSeconds) {
+        this.collection = collection;
+        this.type = type;
+        collection.createIndex(new BasicDBObject(UPDATED_AT, 1), new BasicDBObject("expireAfterSeconds", expireAfterSeconds));
+    }
+
+    @Override
+    public void put (String id, V status) {
+        BasicDBObject dbObject = JsonUtil.objectMapper.convertValue(status, BasicDBObject.class);
+        dbObject.put("_id", id);
+        dbObject.put(UPDATED_AT, new Date());
+        collection.save(dbObject);
+    }
+
+    @Override
+    public V get (String id) {
+        DBObject dbObject = collection.findOne(new BasicDBObject("_id", id));
+        return dbObject == null ? null : fromDBObject(dbObject);
+    }
+
+    @Override
+    public Collection<V> values () {
+        List<V> statuses = new ArrayList<>();
+        try (DBCursor cursor = collection.find()) {
+            while (cursor.hasNext()) statuses.add(fromDBObject(cursor.next()));
+        }
+        return statuses;
+    }
+
+    @Override
+    public boolean remove (String id) {
+        return collection.remove(new BasicDBObject("_id", id)).getN() > 0;
+    }
+
+    private V fromDBObject (DBObject dbObject) {
+        dbObject.removeField("_id");
+        dbObject.removeField(UPDATED_AT);
+        return JsonUtil.objectMapper.convertValue(dbObject.toMap(), type);
+    }
+}
@@ -1,6 +1,7 @@
 package com.conveyal.taui.persistence;
 
 import com.conveyal.taui.AnalysisServerConfig;
+import com.conveyal.taui.AnalysisServerException;
 import com.conveyal.taui.models.Bookmark;
 import com.conveyal.taui.models.Bundle;
 import com.conveyal.taui.models.JsonViews;
@@ -21,8 +22,11 @@ import org.mongojack.JacksonDBCollection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+
 /**
- * Manages a single connection to MongoDB for the entire TAUI server process.
+ * Manages a single connection to MongoDB for the entire TAUI server process, or the local files used instead of
+ * MongoDB when LOCAL_DATABASE is set.
  */
 public class Persistence {
     private static final Logger LOG = LoggerFactory.getLogger(Persistence.class);
@@ -31,15 +35,27 @@ public class Persistence {
     private static MongoClient mongo;
     private static DB db;
 
-    public static MongoMap<Modification> modifications;
-    public static MongoMap<Project> projects;
-    public static MongoMap<Bundle> bundles;
-    public static MongoMap<Region> regions;
-    public static MongoMap<RegionalAnalysis> regionalAnalyses;
-    public static MongoMap<Bookmark> bookmarks;
-    public static MongoMap<AggregationArea> aggregationAreas;
+    /** Statuses that have not been updated for this long are removed from shared status registries */
+    private static final int STATUS_EXPIRY_SECONDS = 7 * 24 * 60 * 60;
+
+    public static ModelMap<Modification> modifications;
+    public static ModelMap<Project> projects;
+    public static ModelMap<Bundle> bundles;
+    public static ModelMap<Region> regions;
+    public static ModelMap<RegionalAnalysis> regionalAnalyses;
+    public static ModelMap<Bookmark> bookmarks;
+    public static ModelMap<AggregationArea> aggregationAreas;
+
+    /** Progress updates made while processing bundles and fetching data for regions */
+    public static StatusUpdateCoalescer<Bundle> bundleStatusUpdates;
+    public static StatusUpdateCoalescer<Region> regionStatusUpdates;
 
     public static void initialize () {
+        if (AnalysisServerConfig.localDatabase) {
+            initializeLocal();
+            return;
+        }
+
         LOG.info("Connecting to MongoDB...");
         // allow configurable db connection params
         if (AnalysisServerConfig.databaseUri != null) {
@@ -62,6 +78,58 @@ public class Persistence {
         regionalAnalyses = getTable("regional-analyses", RegionalAnalysis.class);
         bookmarks = getTable("bookmarks", Bookmark.class);
         aggregationAreas = getTable("aggregationAreas", AggregationArea.class);
+
+        Indexes.ensureAll(db);
+
+        initializeStatusUpdates();
+    }
+
+    private static void initializeLocal () {
+        if (AnalysisServerConfig.clustered) {
+            throw new IllegalStateException("Backend instances can only share work through MongoDB, not a local database.");
+        }
+
+        File directory = new File(AnalysisServerConfig.localCache, "database");
+        directory.mkdirs();
+        LOG.info("Using local database in {}", directory);
+
+        modifications = new LocalMap<>(new File(directory, "modifications.json"), Modification.class);
+        projects = new LocalMap<>(new File(directory, "projects.json"), Project.class);
+        bundles = new LocalMap<>(new File(directory, "bundles.json"), Bundle.class);
+        regions = new LocalMap<>(new File(directory, "regions.json"), Region.class);
+        regionalAnalyses = new LocalMap<>(new File(directory, "regional-analyses.json"), RegionalAnalysis.class);
+        bookmarks = new LocalMap<>(new File(directory, "bookmarks.json"), Bookmark.class);
+        aggregationAreas = new LocalMap<>(new File(directory, "aggregationAreas.json"), AggregationArea.class);
+
+        initializeStatusUpdates();
+    }
+
+    private static void initializeStatusUpdates () {
+        bundleStatusUpdates = new StatusUpdateCoalescer<>(bundles, Bundle.class);
+        regionStatusUpdates = new StatusUpdateCoalescer<>(regions, Region.class);
+    }
+
+    /**
+     * Get a registry for statuses of the given type. When several backend instances are sharing the work this returns
+     * a registry stored in the database, otherwise one local to this process.
+     */
+    public static <V> StatusRegistry<V> getStatusRegistry (String name, Class<V> type) {
+        if (AnalysisServerConfig.clustered) {
+            return new MongoStatusRegistry<>(db.getCollection("status-" + name), type, STATUS_EXPIRY_SECONDS);
+        } else {
+            return new InMemoryStatusRegistry<>(STATUS_EXPIRY_SECONDS);
+        }
+    }
+
+    /** Report on the query plans and index usage of our collections, and on recent slow queries */
+    public static DatabaseDiagnostics getDiagnostics (String accessGroup) {
+        if (db == null) throw AnalysisServerException.BadRequest("Database diagnostics are only available for MongoDB.");
+        return DatabaseDiagnostics.diagnose(db, accessGroup);
+    }
+
+    /** Get the leases recording which backend instance is assembling each regional analysis job */
+    public static JobLeases getJobLeases (long leaseMillis) {
+        return new JobLeases(db.getCollection("job-leases"), AnalysisServerConfig.nodeId, leaseMillis);
     }
 
     /** connect to a table using MongoJack */
@@ -69,6 +137,6 @@ public class Persistence {
         DBCollection collection = db.getCollection(name);
         ObjectMapper om = JsonUtil.getObjectMapper(JsonViews.Db.class, true);
         JacksonDBCollection<V, String> coll = JacksonDBCollection.wrap(collection, clazz, String.class, om);
-        return new MongoMap<>(coll);
+        return new MongoMap<>(coll, clazz);
     }
 }
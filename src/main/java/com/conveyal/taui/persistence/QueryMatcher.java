@@ -0,0 +1,86 @@
+package com.conveyal.taui.persistence;
+
+import com.conveyal.taui.AnalysisServerException;
+import com.mongodb.DBObject;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Evaluates MongoDB queries against documents in memory, for LocalMap. Only the parts of the query language that we
+ * use are supported: equality, $and, $or, $in, $nin, $ne, $exists and the comparison operators, on top-level fields
+ * with scalar values.
+ */
+class QueryMatcher {
+    static boolean matches (DBObject query, Map<String, Object> document) {
+        for (String key : query.keySet()) {
+            Object condition = query.get(key);
+            switch (key) {
+                case "$and":
+                    for (Object q : (Collection<?>) condition) if (!matches((DBObject) q, document)) return false;
+                    break;
+                case "$or":
+                    boolean any = false;
+                    for (Object q : (Collection<?>) condition) any |= matches((DBObject) q, document);
+                    if (!any) return false;
+                    break;
+                default:
+                    if (key.startsWith("$")) throw AnalysisServerException.Unknown("Unsupported query operator " + key);
+                    if (!matchesField(condition, document.containsKey(key), document.get(key))) return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesField (Object condition, boolean exists, Object value) {
+        if (!(condition instanceof DBObject) || !isOperators((DBObject) condition)) return equal(condition, value);
+
+        DBObject operators = (DBObject) condition;
+        for (String operator : operators.keySet()) {
+            Object operand = operators.get(operator);
+            int comparison = compare(value, operand);
+            boolean match;
+            switch (operator) {
+                case "$in": match = contains(operand, value); break;
+                case "$nin": match = !contains(operand, value); break;
+                case "$ne": match = !equal(operand, value); break;
+                case "$exists": match = exists == Boolean.TRUE.equals(operand); break;
+                case "$gt": match = comparison == 1; break;
+                case "$gte": match = comparison == 1 || comparison == 0; break;
+                case "$lt": match = comparison == -1; break;
+                case "$lte": match = comparison == -1 || comparison == 0; break;
+                default: throw AnalysisServerException.Unknown("Unsupported query operator " + operator);
+            }
+            if (!match) return false;
+        }
+        return true;
+    }
+
+    private static boolean isOperators (DBObject condition) {
+        return !condition.keySet().isEmpty() && condition.keySet().stream().allMatch(k -> k.startsWith("$"));
+    }
+
+    private static boolean contains (Object operand, Object value) {
+        for (Object candidate : (Collection<?>) operand) if (equal(candidate, value)) return true;
+        return false;
+    }
+
+    /** Equality as in MongoDB, where numbers of different types are equal if they have the same value */
+    static boolean equal (Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) return ((Number) a).doubleValue() == ((Number) b).doubleValue();
+        return Objects.equals(a, b);
+    }
+
+    /** @return -1, 0 or 1, or 2 for missing values and values of different types, which never satisfy a comparison */
+    @SuppressWarnings("unchecked")
+    private static int compare (Object value, Object operand) {
+        if (value instanceof Number && operand instanceof Number) {
+            return Integer.signum(Double.compare(((Number) value).doubleValue(), ((Number) operand).doubleValue()));
+        }
+        if (value == null || operand == null || value.getClass() != operand.getClass() || !(value instanceof Comparable)) {
+            return 2;
+        }
+        return Integer.signum(((Comparable<Object>) value).compareTo(operand));
+    }
+}
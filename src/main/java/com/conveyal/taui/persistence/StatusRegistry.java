@@ -0,0 +1,25 @@
+package com.conveyal.taui.persistence;
+
+import java.util.Collection;
+
+/**
+ * A registry of short-lived status objects (upload progress, regional analysis progress and so on) keyed on an ID.
+ * Statuses used to be kept in static fields of the controllers, which only works when there is a single backend
+ * process. Use Persistence.getStatusRegistry to get an implementation that is either local to this process or shared
+ * between all backend instances, depending on configuration.
+ *
+ * Statuses are values, not live views: callers that modify a status must put it again for the change to be seen by
+ * other backend instances. Statuses that have not been put for a while are removed by the registry itself, so callers
+ * do not need to prune old statuses.
+ */
+public interface StatusRegistry<V> {
+    void put (String id, V status);
+
+    /** @return the status with the given ID, or null if there is none */
+    V get (String id);
+
+    Collection<V> values ();
+
+    /** @return true if there was a status with the given ID */
+    boolean remove (String id);
+}
@@ -0,0 +1,124 @@
+package com.conveyal.taui.persistence;
+
+import com.conveyal.taui.AnalysisServerException;
+import com.conveyal.taui.models.JsonViews;
+import com.conveyal.taui.models.Model;
+import com.conveyal.taui.util.JsonUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces the progress updates that background threads make to an object while processing it, e.g. after each feed
+ * of a bundle. The first update is written immediately; updates within WINDOW_MILLIS of the last write are held, and
+ * only the latest of them is written at the end of the window. Final states are written with put, which replaces any
+ * held update, so they are neither delayed nor overwritten by an older progress update.
+ *
+ * Progress updates are written in the background, so once an object has been passed to update, further writes of it
+ * must also go through this class, which keeps track of its current nonce.
+ */
+public class StatusUpdateCoalescer<V extends Model> {
+    private static final Logger LOG = LoggerFactory.getLogger(StatusUpdateCoalescer.class);
+
+    private static final long WINDOW_MILLIS = 2000;
+
+    /** Copies held updates, so that the processing thread can keep modifying its object while they wait */
+    private static final ObjectMapper copyMapper = JsonUtil.getObjectMapper(JsonViews.Db.class);
+
+    private static final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "status-update-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ModelMap<V> map;
+    private final Class<V> type;
+
+    private final Map<String, Pending> pending = new HashMap<>();
+
+    public StatusUpdateCoalescer (ModelMap<V> map, Class<V> type) {
+        this.map = map;
+        this.type = type;
+    }
+
+    /** Save a progress update of an object, now or at the end of the current window */
+    public void update (V value) {
+        V copy = copy(value);
+        Pending entry = getPending(value);
+        synchronized (entry) {
+            entry.latest = copy;
+            long wait = entry.lastWrite + WINDOW_MILLIS - System.currentTimeMillis();
+            if (wait <= 0) {
+                write(entry);
+            } else if (entry.flush == null) {
+                entry.flush = flusher.schedule(() -> {
+                    synchronized (entry) {
+                        entry.flush = null;
+                        try {
+                            write(entry);
+                        } catch (Exception e) {
+                            LOG.error("Could not save status of {} {}", type.getSimpleName(), value._id, e);
+                        }
+                    }
+                }, wait, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /** Save the final state of an object immediately, discarding any held progress update */
+    public V put (V value) {
+        Pending entry;
+        synchronized (pending) {
+            entry = pending.remove(value._id);
+        }
+        if (entry == null) return map.put(value);
+
+        synchronized (entry) {
+            if (entry.flush != null) entry.flush.cancel(false);
+            entry.latest = null;
+            if (entry.nonce != null) value.nonce = entry.nonce;
+            return map.put(value);
+        }
+    }
+
+    private Pending getPending (V value) {
+        synchronized (pending) {
+            return pending.computeIfAbsent(value._id, id -> new Pending());
+        }
+    }
+
+    /** Write the latest held update, if any. Call while holding the lock on the entry. */
+    private void write (Pending entry) {
+        V latest = entry.latest;
+        if (latest == null) return;
+        entry.latest = null;
+        if (entry.nonce != null) latest.nonce = entry.nonce;
+        entry.nonce = map.put(latest).nonce;
+        entry.lastWrite = System.currentTimeMillis();
+    }
+
+    private V copy (V value) {
+        try {
+            return copyMapper.readValue(copyMapper.writeValueAsBytes(value), type);
+        } catch (IOException e) {
+            throw AnalysisServerException.Unknown(e);
+        }
+    }
+
+    /** The updates of one object */
+    private class Pending {
+        V latest;
+        /** The nonce of the object in the database, after the last write made here */
+        String nonce;
+        long lastWrite;
+        ScheduledFuture<?> flush;
+    }
+}
@@ -0,0 +1,63 @@
+package com.conveyal.taui.util;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Google encoded polyline format: latitude and longitude rounded to a fixed precision, delta-encoded from one
+ * coordinate to the next and written as printable characters. Scale is 1e5 in the original format (about one meter);
+ * 1e6 is also common where more precision is needed.
+ */
+public class EncodedPolyline {
+    public static String encode (Coordinate[] coordinates, double scale) {
+        StringBuilder encoded = new StringBuilder();
+        long previousLat = 0;
+        long previousLon = 0;
+        for (Coordinate c : coordinates) {
+            long lat = Math.round(c.y * scale);
+            long lon = Math.round(c.x * scale);
+            encodeValue(lat - previousLat, encoded);
+            encodeValue(lon - previousLon, encoded);
+            previousLat = lat;
+            previousLon = lon;
+        }
+        return encoded.toString();
+    }
+
+    public static Coordinate[] decode (String encoded, double scale) {
+        List<Coordinate> coordinates = new ArrayList<>();
+        long lat = 0;
+        long lon = 0;
+        int[] position = { 0 };
+        while (position[0] < encoded.length()) {
+            lat += decodeValue(encoded, position);
+            lon += decodeValue(encoded, position);
+            coordinates.add(new Coordinate(lon / scale, lat / scale));
+        }
+        return coordinates.toArray(new Coordinate[coordinates.size()]);
+    }
+
+    private static void encodeValue (long value, StringBuilder encoded) {
+        value = value < 0 ? ~(value << 1) : value << 1;
+        while (value >= 0x20) {
+            encoded.append((char) ((0x20 | (value & 0x1f)) + 63));
+            value >>= 5;
+        }
+        encoded.append((char) (value + 63));
+    }
+
+    /** Decode the value starting at position[0], and advance position[0] past it */
+    private static long decodeValue (String encoded, int[] position) {
+        long value = 0;
+        int shift = 0;
+        long chunk;
+        do {
+            chunk = encoded.charAt(position[0]++) - 63;
+            value |= (chunk & 0x1f) << shift;
+            shift += 5;
+        } while (chunk >= 0x20);
+        return (value & 1) == 1 ? ~(value >> 1) : value >> 1;
+    }
+}
@@ -1,5 +1,6 @@
 package com.conveyal.taui.util;
 
+import com.conveyal.taui.AnalysisServerConfig;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
@@ -13,10 +14,31 @@ public class HttpUtil {
             .setSocketTimeout(60 * 1000)
             .build(); // time out after one minute, prevent connections from becoming blocked.
 
+    /**
+     * As above, but also give up after ten seconds waiting for a pooled connection. Single point requests are limited
+     * by permits to the size of their pool, so this should only happen if a connection is leaked.
+     */
+    private static final RequestConfig singlePointRequestConfig = RequestConfig.copy(requestConfig)
+            .setConnectionRequestTimeout(10 * 1000)
+            .build();
+
     public static final CloseableHttpClient httpClient = HttpClients.custom()
             .setMaxConnPerRoute(1024)
             .setMaxConnTotal(2048)
             .setDefaultRequestConfig(requestConfig)
             .build();
 
+    /**
+     * Client used only for single point requests to the broker. It has its own connection pool, sized to the limit on
+     * concurrent single point requests, so that a burst of map clicks cannot use up the connections needed for
+     * regional analysis requests. Responses are not decompressed, so that gzipped travel time surfaces can be
+     * streamed through to the client without being inflated and compressed again.
+     */
+    public static final CloseableHttpClient singlePointHttpClient = HttpClients.custom()
+            .setMaxConnPerRoute(AnalysisServerConfig.maxSinglePointRequests)
+            .setMaxConnTotal(AnalysisServerConfig.maxSinglePointRequests)
+            .disableContentCompression()
+            .setDefaultRequestConfig(singlePointRequestConfig)
+            .build();
+
 }
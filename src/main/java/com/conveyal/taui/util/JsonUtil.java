@@ -11,6 +11,7 @@ public abstract class JsonUtil {
 
 
     public static ObjectMapper objectMapper = getObjectMapper(JsonViews.Api.class);
+    public static ObjectMapper summaryObjectMapper = getObjectMapper(JsonViews.Summary.class);
 
     public static ObjectMapper getObjectMapper (Class view) {
         return getObjectMapper(view, false);
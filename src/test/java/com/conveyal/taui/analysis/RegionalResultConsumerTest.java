@@ -0,0 +1,134 @@
+package com.conveyal.taui.analysis;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check how received results are routed to the lanes of their jobs and how the lanes are scheduled, against an SQS
+ * client that only records the messages it is asked to delete or keep invisible.
+ */
+public class RegionalResultConsumerTest {
+    private final List<Object> deleted = Collections.synchronizedList(new ArrayList<>());
+    private final List<Object> extended = Collections.synchronizedList(new ArrayList<>());
+
+    private final AmazonSQS sqs = (AmazonSQS) Proxy.newProxyInstance(AmazonSQS.class.getClassLoader(),
+            new Class<?>[] { AmazonSQS.class }, (proxy, method, args) -> {
+                if (method.getName().equals("deleteMessageBatch")) deleted.addAll((List<?>) args[1]);
+                else if (method.getName().equals("changeMessageVisibilityBatch")) extended.addAll((List<?>) args[1]);
+                else throw new UnsupportedOperationException(method.getName());
+                return null;
+            });
+
+    /** Runs tasks only when the test asks it to */
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    private static List<Message> results (String jobId, int n) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            messages.add(new Message()
+                    .withReceiptHandle(jobId + "-" + i)
+                    .withMessageAttributes(Collections.singletonMap("jobId",
+                            new MessageAttributeValue().withDataType("String").withStringValue(jobId))));
+        }
+        return messages;
+    }
+
+    @Test
+    public void assemblesEachJobOnOneThreadAtATime () throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        RegionalResultConsumer consumer = new RegionalResultConsumer(sqs, "queue", pool, 5000, 30);
+
+        int nResults = 1000;
+        CountDownLatch done = new CountDownLatch(nResults);
+        AtomicInteger concurrent = new AtomicInteger();
+        AtomicInteger maxConcurrent = new AtomicInteger();
+        consumer.registerJob("job", message -> {
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            Thread.yield();
+            concurrent.decrementAndGet();
+            done.countDown();
+        });
+
+        List<Message> messages = results("job", nResults);
+        for (int i = 0; i < nResults; i += 10) consumer.handleReceived(messages.subList(i, i + 10));
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(1, maxConcurrent.get());
+        assertEquals(nResults, deleted.size());
+        assertEquals(0, consumer.getLane("job").getBacklog());
+    }
+
+    @Test
+    public void yieldsToOtherJobsAfterMaxResultsPerDrain () throws Exception {
+        RegionalResultConsumer consumer = new RegionalResultConsumer(sqs, "queue", tasks::add, 5000, 30);
+        List<String> handled = new ArrayList<>();
+        consumer.registerJob("a", message -> handled.add("a"));
+        consumer.registerJob("b", message -> handled.add("b"));
+
+        consumer.handleReceived(results("a", 250));
+        consumer.handleReceived(results("b", 1));
+        assertEquals(2, tasks.size());
+
+        tasks.poll().run();
+        assertEquals(RegionalResultConsumer.MAX_RESULTS_PER_DRAIN, handled.size());
+        assertEquals(150, consumer.getLane("a").getBacklog());
+
+        // Job a has gone to the back of the queue, behind job b.
+        tasks.poll().run();
+        assertEquals("b", handled.get(handled.size() - 1));
+
+        while (!tasks.isEmpty()) tasks.poll().run();
+        assertEquals(251, handled.size());
+        assertEquals(251, deleted.size());
+    }
+
+    @Test
+    public void leavesResultsForUnknownJobsOnTheQueue () throws Exception {
+        RegionalResultConsumer consumer = new RegionalResultConsumer(sqs, "queue", tasks::add, 5000, 30);
+        consumer.handleReceived(results("unknown", 5));
+        assertTrue(tasks.isEmpty());
+        assertEquals(0, deleted.size());
+
+        // Results for jobs deleted here will never be assembled, so they are removed from the queue.
+        consumer.registerJob("deleted", message -> { });
+        consumer.deleteJob("deleted");
+        consumer.handleReceived(results("deleted", 5));
+        assertEquals(5, deleted.size());
+    }
+
+    @Test
+    public void extendsVisibilityOfWaitingResults () throws Exception {
+        // With a one second visibility timeout every waiting result is due for extension at the first check.
+        RegionalResultConsumer consumer = new RegionalResultConsumer(sqs, "queue", tasks::add, 5000, 1);
+        consumer.registerJob("job", message -> { });
+        consumer.handleReceived(results("job", 15));
+
+        consumer.extendVisibility();
+        assertEquals(15, extended.size());
+
+        // Once assembled, results are deleted and no longer extended.
+        while (!tasks.isEmpty()) tasks.poll().run();
+        extended.clear();
+        consumer.extendVisibility();
+        assertEquals(0, extended.size());
+    }
+}
@@ -0,0 +1,58 @@
+package com.conveyal.taui.analysis;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check the rates reported by the throughput meter against a clock that only moves when the test moves it.
+ */
+public class ThroughputMeterTest {
+    private final AtomicLong now = new AtomicLong(1_000_000_000L);
+    private final ThroughputMeter meter = new ThroughputMeter(now::get);
+
+    @Test
+    public void reportsNothingBeforeTheFirstEvent () {
+        assertEquals(0, meter.getRate(), 0);
+        assertEquals(-1, meter.getMillisSinceLastEvent());
+    }
+
+    @Test
+    public void averagesOverTheTimeSinceTheFirstEvent () {
+        for (int second = 0; second < 10; second++) {
+            meter.record(5);
+            now.addAndGet(1000);
+        }
+        // 50 events over the 10 seconds since the first one.
+        assertEquals(5, meter.getRate(), 1e-9);
+    }
+
+    @Test
+    public void countsAtLeastOneSecond () {
+        meter.record(3);
+        now.addAndGet(100);
+        assertEquals(3, meter.getRate(), 1e-9);
+    }
+
+    @Test
+    public void forgetsEventsOutsideTheWindow () {
+        meter.record(600);
+        now.addAndGet(ThroughputMeter.WINDOW_SECONDS * 1000L);
+        assertEquals(0, meter.getRate(), 1e-9);
+
+        // The bucket that held the old events is reused for new ones.
+        meter.record(120);
+        assertEquals(2, meter.getRate(), 1e-9);
+    }
+
+    @Test
+    public void tracksTimeSinceTheLastEvent () {
+        meter.record(1);
+        now.addAndGet(2500);
+        assertEquals(2500, meter.getMillisSinceLastEvent());
+        meter.record(1);
+        assertEquals(0, meter.getMillisSinceLastEvent());
+    }
+}
@@ -0,0 +1,162 @@
+package com.conveyal.taui.grids;
+
+import com.conveyal.taui.util.EncodedPolyline;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.vividsolutions.jts.geom.Coordinate;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the shapes of contoured isochrones on small surfaces, and that they are written out as GeoJSON expects.
+ */
+public class IsochronesTest {
+    private static final int CUTOFF = 30;
+    private static final int IN = 10;
+    private static final int OUT = 60;
+
+    /** Build a single percentile surface from rows of travel times, in the format the workers return. */
+    private static TravelTimeSurface surface (int[][] rows) throws IOException {
+        int height = rows.length;
+        int width = rows[0].length;
+        ByteBuffer buffer = ByteBuffer.allocate(TravelTimeSurface.HEADER.length() + 4 * (7 + width * height))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(TravelTimeSurface.HEADER.getBytes(StandardCharsets.US_ASCII));
+        buffer.putInt(0).putInt(9).putInt(130).putInt(170).putInt(width).putInt(height).putInt(1);
+        int previous = 0;
+        for (int[] row : rows) {
+            for (int time : row) {
+                buffer.putInt(time - previous);
+                previous = time;
+            }
+        }
+        return TravelTimeSurface.read(new ByteArrayInputStream(buffer.array()));
+    }
+
+    private static List<List<Coordinate[]>> polygons (int[][] rows) throws IOException {
+        return new Isochrones(surface(rows), 0).getPolygons(CUTOFF);
+    }
+
+    @Test
+    public void contoursSinglePixel () throws IOException {
+        List<List<Coordinate[]>> polygons = polygons(new int[][] {
+                { OUT, OUT, OUT },
+                { OUT, IN, OUT },
+                { OUT, OUT, OUT }
+        });
+        assertEquals(1, polygons.size());
+        assertEquals(1, polygons.get(0).size());
+        Coordinate[] ring = polygons.get(0).get(0);
+        assertEquals(ring[0], ring[ring.length - 1]);
+    }
+
+    @Test
+    public void closesContoursTouchingTheBorder () throws IOException {
+        List<List<Coordinate[]>> polygons = polygons(new int[][] {
+                { IN, IN },
+                { IN, IN }
+        });
+        assertEquals(1, polygons.size());
+        assertEquals(1, polygons.get(0).size());
+        Coordinate[] ring = polygons.get(0).get(0);
+        assertEquals(ring[0], ring[ring.length - 1]);
+        // The contour runs through the padding, outside the samples of the surface itself (at 1 and 2).
+        for (Coordinate c : ring) assertTrue(c.x < 1 || c.x > 2 || c.y < 1 || c.y > 2);
+    }
+
+    @Test
+    public void findsHoles () throws IOException {
+        List<List<Coordinate[]>> polygons = polygons(new int[][] {
+                { IN, IN, IN },
+                { IN, OUT, IN },
+                { IN, IN, IN }
+        });
+        assertEquals(1, polygons.size());
+        assertEquals(2, polygons.get(0).size());
+    }
+
+    @Test
+    public void findsIslandsInsideHoles () throws IOException {
+        List<List<Coordinate[]>> polygons = polygons(new int[][] {
+                { IN, IN, IN, IN, IN },
+                { IN, OUT, OUT, OUT, IN },
+                { IN, OUT, IN, OUT, IN },
+                { IN, OUT, OUT, OUT, IN },
+                { IN, IN, IN, IN, IN }
+        });
+        assertEquals(2, polygons.size());
+        // One polygon is the outer ring with its hole, the other the island alone.
+        int rings = polygons.get(0).size() + polygons.get(1).size();
+        assertEquals(3, rings);
+    }
+
+    @Test
+    public void resolvesSaddlesFromTheMiddleOfTheCell () throws IOException {
+        // The average of the corners is above the cutoff, so the two reachable corners are separate.
+        assertEquals(2, polygons(new int[][] {
+                { IN, OUT },
+                { OUT, IN }
+        }).size());
+
+        // The average of the corners is below the cutoff, so the reachable corners are joined through the middle.
+        assertEquals(1, polygons(new int[][] {
+                { 0, 40 },
+                { 40, 0 }
+        }).size());
+    }
+
+    /** Twice the signed area of a ring, positive if it is counterclockwise */
+    private static double signedArea (JsonNode ring) {
+        double area = 0;
+        for (int i = 0; i < ring.size() - 1; i++) {
+            JsonNode a = ring.get(i);
+            JsonNode b = ring.get(i + 1);
+            area += a.get(0).asDouble() * b.get(1).asDouble() - b.get(0).asDouble() * a.get(1).asDouble();
+        }
+        return area;
+    }
+
+    @Test
+    public void windsShellsCounterclockwiseAndHolesClockwise () throws IOException {
+        Isochrones isochrones = new Isochrones(surface(new int[][] {
+                { IN, IN, IN },
+                { IN, OUT, IN },
+                { IN, IN, IN }
+        }), 0);
+        JsonNode geometry = isochrones.toGeoJson(new int[] { CUTOFF }).get("features").get(0).get("geometry");
+        assertEquals("MultiPolygon", geometry.get("type").asText());
+        JsonNode polygon = geometry.get("coordinates").get(0);
+        assertEquals(2, polygon.size());
+        assertTrue(signedArea(polygon.get(0)) > 0);
+        assertTrue(signedArea(polygon.get(1)) < 0);
+    }
+
+    @Test
+    public void encodesTheSameRingsAsGeoJson () throws IOException {
+        Isochrones isochrones = new Isochrones(surface(new int[][] {
+                { OUT, OUT, OUT, OUT },
+                { OUT, IN, 20, OUT },
+                { OUT, 25, IN, OUT },
+                { OUT, OUT, OUT, OUT }
+        }), 0);
+        int[] cutoffs = { CUTOFF };
+        JsonNode geoJsonRing = isochrones.toGeoJson(cutoffs).get("features").get(0).get("geometry")
+                .get("coordinates").get(0).get(0);
+        String encoded = isochrones.toEncodedPolylines(cutoffs).get(Integer.toString(CUTOFF)).get(0).get(0).asText();
+
+        Coordinate[] decoded = EncodedPolyline.decode(encoded, 1e5);
+        assertEquals(geoJsonRing.size(), decoded.length);
+        for (int i = 0; i < decoded.length; i++) {
+            assertEquals(geoJsonRing.get(i).get(0).asDouble(), decoded[i].x, 1e-5);
+            assertEquals(geoJsonRing.get(i).get(1).asDouble(), decoded[i].y, 1e-5);
+        }
+    }
+}
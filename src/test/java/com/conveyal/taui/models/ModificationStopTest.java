@@ -0,0 +1,70 @@
+package com.conveyal.taui.models;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check that the fast distance approximation used to generate stops matches the exact geodesic distance.
+ */
+public class ModificationStopTest {
+    private static final GeometryFactory geometryFactory = new GeometryFactory();
+
+    @Test
+    public void distanceMatchesOrthodromicDistance () throws Exception {
+        Random random = new Random(42);
+        double[] lengths = { 10, 100, 1000, 10000 };
+        double[] tolerances = { 0.001, 0.001, 0.001, 0.02 };
+
+        for (int l = 0; l < lengths.length; l++) {
+            for (int i = 0; i < 1000; i++) {
+                double lat = random.nextDouble() * 150 - 75;
+                double lon = random.nextDouble() * 360 - 180;
+                double bearing = random.nextDouble() * 2 * Math.PI;
+                double lat1 = lat + lengths[l] * Math.cos(bearing) / 111_000;
+                double lon1 = lon + lengths[l] * Math.sin(bearing) / (111_000 * Math.cos(Math.toRadians(lat)));
+
+                double exact = JTS.orthodromicDistance(new Coordinate(lon, lat), new Coordinate(lon1, lat1),
+                        DefaultGeographicCRS.WGS84);
+                assertEquals(exact, ModificationStop.distance(lon, lat, lon1, lat1), tolerances[l]);
+            }
+        }
+    }
+
+    @Test
+    public void stopsAreGeneratedAtSpacing () throws Exception {
+        Segment segment = new Segment();
+        segment.stopAtStart = true;
+        segment.stopAtEnd = true;
+        segment.spacing = 400;
+        // About 2.2 km due north
+        segment.geometry = geometryFactory.createLineString(new Coordinate[] {
+                new Coordinate(-77.0, 38.90), new Coordinate(-77.0, 38.91), new Coordinate(-77.0, 38.92)
+        });
+
+        List<ModificationStop> stops = ModificationStop.getStopsFromSegments(Collections.singletonList(segment));
+        double length = JTS.orthodromicDistance(new Coordinate(-77.0, 38.90), new Coordinate(-77.0, 38.92),
+                DefaultGeographicCRS.WGS84);
+
+        // A stop at the start, one every 400 meters, and one at the end, as the last generated one is far enough away.
+        List<Double> expected = new ArrayList<>();
+        for (double d = 0; d < length; d += 400) expected.add(d);
+        expected.add(length);
+        assertEquals(expected.size(), stops.size());
+        for (int i = 0; i < stops.size(); i++) {
+            assertEquals(expected.get(i), stops.get(i).distanceFromStart, 0.1);
+        }
+
+        int[] hopTimes = ModificationStop.getHopTimes(stops, new int[] { 15 });
+        assertEquals(stops.size() - 1, hopTimes.length);
+    }
+}
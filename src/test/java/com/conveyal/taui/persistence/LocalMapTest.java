@@ -0,0 +1,81 @@
+package com.conveyal.taui.persistence;
+
+import com.conveyal.taui.AnalysisServerException;
+import com.conveyal.taui.models.Bookmark;
+import com.mongodb.QueryBuilder;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Check that the local database answers the queries we make the way MongoDB does, and keeps its data across restarts.
+ */
+public class LocalMapTest {
+    private static Bookmark bookmark (String regionId, String accessGroup) {
+        Bookmark bookmark = new Bookmark();
+        bookmark.regionId = regionId;
+        bookmark.accessGroup = accessGroup;
+        bookmark.name = regionId + " bookmark";
+        return bookmark;
+    }
+
+    @Test
+    public void storesAndQueriesObjects () throws Exception {
+        File file = new File(Files.createTempDirectory("local-map").toFile(), "bookmarks.json");
+        LocalMap<Bookmark> bookmarks = new LocalMap<>(file, Bookmark.class);
+
+        Bookmark a = bookmarks.create(bookmark("region-a", "group"));
+        bookmarks.createAll(Arrays.asList(bookmark("region-a", "other-group"), bookmark("region-b", "group")));
+
+        Collection<Bookmark> inRegion = bookmarks.findPermitted(QueryBuilder.start("regionId").is("region-a").get(), "group");
+        assertEquals(1, inRegion.size());
+        assertEquals(a._id, inRegion.iterator().next()._id);
+        assertEquals(2, bookmarks.getByProperty("regionId", "region-a").size());
+        assertEquals(2, bookmarks.find(QueryBuilder.start("_id").greaterThan(a._id).get()).size());
+
+        // Updates are only accepted with the current nonce
+        Bookmark stale = bookmarks.get(a._id);
+        a.name = "renamed";
+        a = bookmarks.put(a);
+        try {
+            bookmarks.put(stale);
+            fail("Update with an old nonce was accepted");
+        } catch (AnalysisServerException e) {
+            assertEquals(AnalysisServerException.TYPE.NONCE, e.type);
+        }
+
+        // Moving an object to another region updates the index
+        a.regionId = "region-b";
+        bookmarks.put(a);
+        assertEquals(2, bookmarks.findPermitted(QueryBuilder.start("regionId").is("region-b").get(), "group").size());
+
+        bookmarks.removeIfPermitted(a._id, "group");
+        assertNull(bookmarks.get(a._id));
+
+        // Reopening replays the log
+        LocalMap<Bookmark> reopened = new LocalMap<>(file, Bookmark.class);
+        assertEquals(2, reopened.size());
+        assertEquals(0, reopened.getByProperty("name", "renamed").size());
+        assertEquals(1, reopened.getByProperty("regionId", "region-b").size());
+    }
+
+    @Test
+    public void keepsNonAsciiText () throws Exception {
+        File file = new File(Files.createTempDirectory("local-map").toFile(), "bookmarks.json");
+        Bookmark bookmark = bookmark("r\u00e9gion", "group");
+        bookmark.name = "Z\u00fcrich \u2192 \u6771\u4eac";
+        String id = new LocalMap<>(file, Bookmark.class).create(bookmark)._id;
+
+        // The log is read back as UTF-8 whatever the platform's default charset
+        Bookmark reopened = new LocalMap<>(file, Bookmark.class).get(id);
+        assertEquals("Z\u00fcrich \u2192 \u6771\u4eac", reopened.name);
+        assertEquals("r\u00e9gion", reopened.regionId);
+    }
+}
@@ -0,0 +1,32 @@
+package com.conveyal.taui.util;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check the polyline encoding against the example in Google's documentation, and that it round trips.
+ */
+public class EncodedPolylineTest {
+    private static final Coordinate[] coordinates = {
+            new Coordinate(-120.2, 38.5),
+            new Coordinate(-120.95, 40.7),
+            new Coordinate(-126.453, 43.252)
+    };
+
+    @Test
+    public void encodesGoogleExample () {
+        assertEquals("_p~iF~ps|U_ulLnnqC_mqNvxq`@", EncodedPolyline.encode(coordinates, 1e5));
+    }
+
+    @Test
+    public void roundTrips () {
+        Coordinate[] decoded = EncodedPolyline.decode(EncodedPolyline.encode(coordinates, 1e6), 1e6);
+        assertEquals(coordinates.length, decoded.length);
+        for (int i = 0; i < coordinates.length; i++) {
+            assertEquals(coordinates[i].x, decoded[i].x, 1e-6);
+            assertEquals(coordinates[i].y, decoded[i].y, 1e-6);
+        }
+    }
+}